@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.l2pe;
+
+import acmi.l2.clientmod.unreal.core.Object;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DecompilerBenchmark {
+    @Param({"Engine.Actor", "Engine.Emitter", "Engine.TerrainInfo"})
+    public String className;
+
+    @Param("100")
+    public int count;
+
+    private Fixtures fixtures;
+    private List<Object> objects;
+    private int index;
+    private final StringBuilder sb = new StringBuilder();
+
+    @Setup
+    public void setup() throws IOException {
+        fixtures = new Fixtures();
+        objects = fixtures.createObjects(className, count);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        fixtures.close();
+    }
+
+    @Benchmark
+    public CharSequence decompileProperties() throws IOException {
+        Object object = objects.get(index);
+        index = (index + 1) % objects.size();
+
+        sb.setLength(0);
+        Decompiler.decompileProperties(object, fixtures.serializer, 0, sb);
+        return sb;
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.l2pe;
+
+import acmi.l2.clientmod.io.UnrealPackage;
+import acmi.l2.clientmod.unreal.Environment;
+import acmi.l2.clientmod.unreal.UnrealSerializerFactory;
+import acmi.l2.clientmod.unreal.core.*;
+import acmi.l2.clientmod.unreal.core.Object;
+import acmi.l2.clientmod.unreal.properties.L2Property;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static acmi.l2.clientmod.unreal.UnrealSerializerFactory.IS_STRUCT;
+
+/**
+ * Synthetic environment for benchmarks: a temporary System folder with its own L2.ini
+ * and an empty package, class templates come from the client pointed to by L2PE_BENCH_INI.
+ */
+class Fixtures implements Closeable {
+    static final String PACKAGE_NAME = "L2peBench";
+
+    final File dir;
+    final File ini;
+    final File packageFile;
+    final Environment environment;
+    final UnrealSerializerFactory serializer;
+
+    Fixtures() throws IOException {
+        File clientIni = clientIni();
+
+        dir = Files.createTempDirectory("l2pe-bench").toFile();
+        File system = new File(dir, "System");
+        system.mkdirs();
+
+        Path clientSystem = clientIni.getAbsoluteFile().getParentFile().toPath();
+        String relative = system.toPath().relativize(clientSystem).toString().replace('\\', '/');
+        ini = new File(system, "L2.ini");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(ini), StandardCharsets.UTF_8)) {
+            writer.write("[Core.System]\r\n");
+            writer.write("Paths=*.u\r\n");
+            writer.write("Paths=" + relative + "/*.u\r\n");
+        }
+
+        packageFile = new File(system, PACKAGE_NAME + ".u");
+        reset();
+
+        environment = Environment.fromIni(ini);
+        serializer = new UnrealSerializerFactory(environment);
+    }
+
+    static File clientIni() {
+        String ini = System.getProperty("l2pe.bench.ini", System.getenv("L2PE_BENCH_INI"));
+        if (ini == null)
+            throw new IllegalStateException("L2PE_BENCH_INI must point to a client L2.ini, Core/Engine classes are needed for property templates");
+        return new File(ini);
+    }
+
+    void reset() throws IOException {
+        writeEmptyPackage(packageFile);
+        if (environment != null)
+            environment.markInvalid(PACKAGE_NAME);
+    }
+
+    /**
+     * Plain (not encrypted) UE2 package with "None" in the name table and empty import/export tables.
+     */
+    static void writeEmptyPackage(File file) throws IOException {
+        byte[] none = "None".getBytes(StandardCharsets.US_ASCII);
+        int headerSize = 64;
+        int namesSize = 1 + none.length + 1 + 4;
+
+        ByteBuffer buffer = ByteBuffer.allocate(headerSize + namesSize).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(0x9E2A83C1);
+        buffer.putShort((short) 123);
+        buffer.putShort((short) 0);
+        buffer.putInt(1);
+        buffer.putInt(1);
+        buffer.putInt(headerSize);
+        buffer.putInt(0);
+        buffer.putInt(headerSize + namesSize);
+        buffer.putInt(0);
+        buffer.putInt(headerSize + namesSize);
+        buffer.putLong(0x4C3270654265L);
+        buffer.putLong(0x6E63684669787475L);
+        buffer.putInt(1);
+        buffer.putInt(0);
+        buffer.putInt(1);
+
+        buffer.put((byte) (none.length + 1));
+        buffer.put(none);
+        buffer.put((byte) 0);
+        buffer.putInt(0x04070010);
+
+        Files.write(file.toPath(), buffer.array());
+    }
+
+    /**
+     * Copies of the class (and super classes) default float, int and bool properties with random values,
+     * so none of them is removed as default.
+     */
+    List<L2Property> randomProperties(String className, Random random) {
+        Map<String, L2Property> properties = new LinkedHashMap<>();
+        for (String name = className; name != null; ) {
+            Object clazz = serializer.getOrCreateObject(name, IS_STRUCT);
+            for (L2Property def : clazz.properties) {
+                Property template = def.getTemplate();
+                if (!(template instanceof FloatProperty ||
+                        template instanceof IntProperty ||
+                        template instanceof BoolProperty) ||
+                        properties.containsKey(def.getName()))
+                    continue;
+
+                L2Property property = new L2Property(template);
+                for (int i = 0; i < template.arrayDimension; i++) {
+                    if (template instanceof FloatProperty)
+                        property.putAt(i, random.nextFloat() * 1000 - 500);
+                    else if (template instanceof IntProperty)
+                        property.putAt(i, random.nextInt(1000) + 1);
+                    else
+                        property.putAt(i, !Boolean.TRUE.equals(def.getAt(i)));
+                }
+                properties.put(def.getName(), property);
+            }
+            name = clazz.entry.getObjectSuperClass() == null ? null : clazz.entry.getObjectSuperClass().getObjectFullName();
+        }
+        return new ArrayList<>(properties.values());
+    }
+
+    static void addNames(UnrealPackage up, List<L2Property> properties) {
+        Set<String> names = new LinkedHashSet<>();
+        names.add("None");
+        properties.forEach(p -> names.add(p.getName()));
+        names.stream()
+                .filter(s -> up.nameReference(s) < 0)
+                .forEach(up::addNameEntries);
+    }
+
+    List<Object> createObjects(String className, int count) {
+        Random random = new Random(count);
+        String simpleName = className.substring(className.lastIndexOf('.') + 1);
+
+        try (UnrealPackage up = new UnrealPackage(packageFile, false)) {
+            for (int i = 0; i < count; i++) {
+                List<L2Property> properties = randomProperties(className, random);
+                addNames(up, properties);
+                Util.createObject(serializer, up, simpleName + i, className, UnrealPackage.DEFAULT_OBJECT_FLAGS, false, properties);
+            }
+        }
+        environment.markInvalid(PACKAGE_NAME);
+
+        List<Object> objects = new ArrayList<>();
+        try (UnrealPackage up = new UnrealPackage(packageFile, true)) {
+            for (UnrealPackage.ExportEntry entry : up.getExportTable())
+                objects.add(serializer.getOrCreateObject(entry));
+        }
+        return objects;
+    }
+
+    @Override
+    public void close() throws IOException {
+        Files.walk(dir.toPath())
+                .sorted(Comparator.reverseOrder())
+                .map(Path::toFile)
+                .forEach(File::delete);
+    }
+}
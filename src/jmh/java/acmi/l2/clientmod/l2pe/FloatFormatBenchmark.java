@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.l2pe;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FloatFormatBenchmark {
+    private final float[] values = new float[1024];
+    private final StringBuilder sb = new StringBuilder();
+    private int index;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(0);
+        for (int i = 0; i < values.length; i++)
+            values[i] = (float) (random.nextGaussian() * Math.pow(10, random.nextInt(8) - 2));
+    }
+
+    private float next() {
+        index = (index + 1) & (values.length - 1);
+        return values[index];
+    }
+
+    @Benchmark
+    public CharSequence stringFormat() {
+        sb.setLength(0);
+        sb.append(String.format(Locale.US, "%f", next()));
+        return sb;
+    }
+
+    @Benchmark
+    public CharSequence appendFloat() throws IOException {
+        sb.setLength(0);
+        Decompiler.appendFloat(sb, next());
+        return sb;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.l2pe;
+
+import acmi.l2.clientmod.io.UnrealPackage;
+import acmi.l2.clientmod.unreal.properties.L2Property;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class UtilBenchmark {
+    private static final String CLASS_NAME = "Engine.Actor";
+
+    @Param("500")
+    public int count;
+
+    private Fixtures fixtures;
+    private List<L2Property> properties;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        fixtures = new Fixtures();
+        properties = fixtures.randomProperties(CLASS_NAME, new Random(0));
+    }
+
+    @Setup(Level.Invocation)
+    public void reset() throws IOException {
+        fixtures.reset();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        fixtures.close();
+    }
+
+    @Benchmark
+    public int createObject() {
+        try (UnrealPackage up = new UnrealPackage(fixtures.packageFile, false)) {
+            Fixtures.addNames(up, properties);
+            for (int i = 0; i < count; i++)
+                Util.createObject(fixtures.serializer, up, "Object" + i, CLASS_NAME, UnrealPackage.DEFAULT_OBJECT_FLAGS, false, properties);
+            return up.getExportTable().size();
+        }
+    }
+
+    @Benchmark
+    public int createClass() {
+        try (UnrealPackage up = new UnrealPackage(fixtures.packageFile, false)) {
+            Fixtures.addNames(up, properties);
+            up.addImportEntries(Collections.singletonMap(CLASS_NAME, "Core.Class"));
+            for (int i = 0; i < count; i++)
+                Util.createClass(fixtures.serializer, up, "Class" + i, CLASS_NAME, UnrealPackage.DEFAULT_OBJECT_FLAGS, properties);
+            return up.getExportTable().size();
+        }
+    }
+}
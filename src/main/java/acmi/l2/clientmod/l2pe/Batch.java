@@ -0,0 +1,663 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.l2pe;
+
+import acmi.l2.clientmod.io.UnrealPackage;
+import acmi.l2.clientmod.unreal.Environment;
+import acmi.l2.clientmod.unreal.UnrealSerializerFactory;
+import acmi.l2.clientmod.unreal.core.Object;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+public class Batch {
+    private static final Logger log = Logger.getLogger(Batch.class.getName());
+
+    private static final boolean SAVE_DEFAULTS = System.getProperty("L2pe.saveDefaults", "false").equalsIgnoreCase("true");
+    private static final boolean METRICS = System.getProperty("L2pe.metrics", "false").equalsIgnoreCase("true");
+
+    private final File ini;
+    private final Environment environment;
+    private final UnrealSerializerFactory serializerFactory;
+
+    public Batch(File ini) {
+        this.ini = ini;
+        this.environment = Environment.fromIni(ini);
+        this.serializerFactory = new UnrealSerializerFactory(environment);
+    }
+
+    public File getIni() {
+        return ini;
+    }
+
+    public Environment getEnvironment() {
+        return environment;
+    }
+
+    public UnrealSerializerFactory getSerializerFactory() {
+        return serializerFactory;
+    }
+
+    public static int run(String[] args) {
+        if (args.length < 2) {
+            usage();
+            return 2;
+        }
+
+        String command = args[1];
+        List<String> params = Arrays.asList(args).subList(2, args.length);
+
+        Batch batch;
+        try {
+            batch = new Batch(new File(args[0]));
+        } catch (Exception e) {
+            log.log(Level.SEVERE, e, () -> "Couldn't load L2.ini");
+            return 1;
+        }
+
+        try {
+            switch (command) {
+                case "decompile":
+                    batch.decompile(params);
+                    break;
+                case "decompileAll":
+                    batch.decompileAll(params);
+                    break;
+                case "find":
+                    batch.find(params);
+                    break;
+                case "diff":
+                    batch.diff(params);
+                    break;
+                case "duplicates":
+                    batch.duplicates(params);
+                    break;
+                case "query":
+                    batch.query(params);
+                    break;
+                case "checkDefaults":
+                    batch.checkDefaults(params);
+                    break;
+                case "checkFloats":
+                    batch.checkFloats(params);
+                    break;
+                case "addName":
+                    batch.addName(params);
+                    break;
+                case "addImport":
+                    batch.addImport(params);
+                    break;
+                case "addObject":
+                    batch.addObject(params);
+                    break;
+                case "addClass":
+                    batch.addClass(params);
+                    break;
+                case "edit":
+                    batch.edit(params);
+                    break;
+                case "bulkEdit":
+                    batch.bulkEdit(params);
+                    break;
+                case "import":
+                    batch.importProperties(params);
+                    break;
+                default:
+                    usage();
+                    return 2;
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return 2;
+        } catch (Exception e) {
+            log.log(Level.SEVERE, e, () -> "Couldn't execute " + command);
+            return 1;
+        } finally {
+            if (METRICS)
+                System.err.print(Metrics.report());
+        }
+        return 0;
+    }
+
+    private static void usage() {
+        System.err.println("Usage: L2pe --batch <L2.ini> <command> [args...]");
+        System.err.println("Commands:");
+        System.err.println("  decompile [-o <dir>] <package> [<object>...]");
+        System.err.println("  decompileAll -o <dir> [<package>...]");
+        System.err.println("  find <query>");
+        System.err.println("  diff [-o <file>] <other L2.ini|dir> [<package>...]");
+        System.err.println("  duplicates [-o <file>] [-min <bytes>] [<package>...]");
+        System.err.println("  query [-o <file>] <[Class:] predicate> [<package>...]");
+        System.err.println("  checkDefaults [<package>...]");
+        System.err.println("  checkFloats [<count>]");
+        System.err.println("  addName <package> <name>...");
+        System.err.println("  addImport <package> <Package.Name> <Core.Class>");
+        System.err.println("  addObject <package> <name> <Core.Class> [hasStack]");
+        System.err.println("  addClass <package> <name> <Package.SuperClass>");
+        System.err.println("  edit <package> <script>");
+        System.err.println("  import <package> <file.txt|dir>...");
+        System.err.println("  bulkEdit <package> <Package.Class|*> <Property.Path=value>...");
+    }
+
+    public void markInvalid(String packageName) {
+        environment.markInvalid(packageName);
+        DefaultProperties.invalidate(serializerFactory, packageName);
+    }
+
+    public File findPackage(String name) {
+        return environment.listFiles()
+                .filter(f -> f.getName().equalsIgnoreCase(name) || Util.getPackageName(f).equalsIgnoreCase(name))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Package not found: " + name));
+    }
+
+    public static UnrealPackage.ExportEntry findEntry(UnrealPackage up, String name) {
+        return up.getExportTable()
+                .stream()
+                .filter(e -> e.getObjectInnerFullName().equalsIgnoreCase(name) || e.getObjectFullName().equalsIgnoreCase(name))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Entry not found: " + up.getPackageName() + "." + name));
+    }
+
+    private static File option(List<String> params, String option) {
+        int i = params.indexOf(option);
+        if (i < 0)
+            return null;
+        if (i + 1 >= params.size())
+            throw new IllegalArgumentException(option + " requires a value");
+        File value = new File(params.get(i + 1));
+        params.subList(i, i + 2).clear();
+        return value;
+    }
+
+    private static void require(List<String> params, int count) {
+        if (params.size() < count)
+            throw new IllegalArgumentException("Not enough arguments: " + params);
+    }
+
+    public void decompile(List<String> params) throws IOException {
+        params = new ArrayList<>(params);
+        File outDir = option(params, "-o");
+        require(params, 1);
+
+        try (UnrealPackage up = Util.openPackage(findPackage(params.get(0)), true)) {
+            List<UnrealPackage.ExportEntry> entries = new ArrayList<>();
+            if (params.size() > 1) {
+                for (String name : params.subList(1, params.size()))
+                    entries.add(findEntry(up, name));
+            } else {
+                entries.addAll(up.getExportTable());
+            }
+
+            Writer console = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+            for (UnrealPackage.ExportEntry entry : entries) {
+                Object object = Util.loadObject(serializerFactory, entry);
+
+                if (outDir == null) {
+                    console.write("// " + entry.getObjectFullName() + "\r\n");
+                    Decompiler.decompileProperties(object, serializerFactory, 0, console);
+                    console.write("\r\n");
+                    console.flush();
+                } else {
+                    File file = new File(outDir, entry.getObjectInnerFullName() + ".txt");
+                    file.getParentFile().mkdirs();
+                    try (Writer writer = new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(file)), StandardCharsets.UTF_8)) {
+                        Decompiler.decompileProperties(object, serializerFactory, 0, writer);
+                    }
+                }
+            }
+        }
+    }
+
+    public void decompileAll(List<String> params) {
+        params = new ArrayList<>(params);
+        File outDir = option(params, "-o");
+        if (outDir == null)
+            throw new IllegalArgumentException("-o <dir> is required");
+
+        List<File> packages = new ArrayList<>();
+        if (params.isEmpty()) {
+            environment.listFiles().forEach(packages::add);
+        } else {
+            for (String name : params)
+                packages.add(findPackage(name));
+        }
+
+        File root = environment.getStartDir().getAbsoluteFile().getParentFile();
+        EnvironmentDecompiler decompiler = new EnvironmentDecompiler(new SerializerFactoryPool(ini), root, outDir);
+        List<String> failures = decompiler.decompile(packages, file -> null, params.isEmpty() ? root : null);
+        System.err.println(decompiler.getWritten() + " file(s) written, " + decompiler.getUnchanged() + " unchanged, " + decompiler.getDeleted() + " deleted");
+        failures.forEach(System.err::println);
+        if (!failures.isEmpty())
+            throw new IllegalStateException(failures.size() + " export(s) failed");
+    }
+
+    public void find(List<String> params) {
+        require(params, 1);
+
+        ExportIndex index = ExportIndex.build(environment.listFiles().collect(Collectors.toList()), new MetadataCache(new File(L2PE.getDataDir(), "metadata")));
+        index.find(params.get(0), Integer.MAX_VALUE)
+                .forEach(hit -> System.out.println(hit + "\t" + hit.getFile()));
+    }
+
+    public void diff(List<String> params) throws IOException, InterruptedException {
+        params = new ArrayList<>(params);
+        File outFile = option(params, "-o");
+        require(params, 1);
+
+        File other = new File(params.get(0));
+        List<File> oldPackages = new ArrayList<>();
+        if (params.size() > 1) {
+            for (String name : params.subList(1, params.size()))
+                oldPackages.add(findPackage(name));
+        } else {
+            environment.listFiles().forEach(oldPackages::add);
+        }
+
+        List<File> newPackages;
+        Set<String> folderPackages = Collections.emptySet();
+        SerializerFactoryPool newFactories;
+        if (other.isDirectory()) {
+            Set<String> extensions = oldPackages.stream()
+                    .map(f -> f.getName().substring(Util.getPackageName(f).length()).toLowerCase())
+                    .collect(Collectors.toSet());
+            try (Stream<Path> files = Files.walk(other.toPath())) {
+                newPackages = files.map(Path::toFile)
+                        .filter(File::isFile)
+                        .filter(f -> extensions.contains(f.getName().substring(Util.getPackageName(f).length()).toLowerCase()))
+                        .collect(Collectors.toList());
+            }
+            folderPackages = newPackages.stream()
+                    .map(f -> Util.getPackageName(f).toLowerCase())
+                    .collect(Collectors.toSet());
+            newFactories = new SerializerFactoryPool(ini);
+        } else {
+            newPackages = Environment.fromIni(other).listFiles().collect(Collectors.toList());
+            newFactories = new SerializerFactoryPool(other);
+        }
+        if (params.size() > 1) {
+            Set<String> selected = oldPackages.stream().map(f -> f.getName().toLowerCase()).collect(Collectors.toSet());
+            newPackages.removeIf(f -> !selected.contains(f.getName().toLowerCase()));
+        }
+        if (other.isDirectory())
+            checkStandalone(newPackages, folderPackages);
+
+        PackageDiff diff = new PackageDiff(new SerializerFactoryPool(ini), newFactories);
+        Writer out = new BufferedWriter(new OutputStreamWriter(outFile == null ? System.out : new FileOutputStream(outFile), StandardCharsets.UTF_8));
+        try {
+            diff.diff(oldPackages, newPackages, out);
+        } finally {
+            if (outFile == null)
+                out.flush();
+            else
+                out.close();
+        }
+        System.err.println(diff.getStats());
+        if (diff.getStats().getFailed() > 0)
+            throw new IllegalStateException(diff.getStats().getFailed() + " failure(s)");
+    }
+
+    /**
+     * Packages of a folder are read with this client's environment, which resolves classes and imports
+     * to this client's packages. That is only right if they don't define classes or import from each other.
+     */
+    private static void checkStandalone(List<File> packages, Set<String> names) {
+        List<String> dependent = new ArrayList<>();
+        for (File file : packages) {
+            try (UnrealPackage up = Util.openPackage(file, true)) {
+                String packageName = up.getPackageName();
+                if (up.getExportTable().stream().anyMatch(entry -> entry.getObjectClass() == null)) {
+                    dependent.add(file + ": defines classes");
+                    continue;
+                }
+                up.getImportTable().stream()
+                        .map(entry -> entry.getObjectFullName().split("\\.", 2)[0])
+                        .filter(name -> !name.equalsIgnoreCase(packageName) && names.contains(name.toLowerCase()))
+                        .findFirst()
+                        .ifPresent(name -> dependent.add(file + ": imports from " + name));
+            }
+        }
+        if (!dependent.isEmpty())
+            throw new IllegalArgumentException("Packages depend on other packages of the folder, diff against its L2.ini instead:\n" +
+                    String.join("\n", dependent));
+    }
+
+    public void duplicates(List<String> params) throws IOException, InterruptedException {
+        params = new ArrayList<>(params);
+        File outFile = option(params, "-o");
+        int minSize = 0;
+        int i = params.indexOf("-min");
+        if (i >= 0) {
+            if (i + 1 >= params.size())
+                throw new IllegalArgumentException("-min requires a value");
+            minSize = Integer.parseInt(params.get(i + 1));
+            params.subList(i, i + 2).clear();
+        }
+
+        List<File> packages = new ArrayList<>();
+        if (params.isEmpty()) {
+            environment.listFiles().forEach(packages::add);
+        } else {
+            for (String name : params)
+                packages.add(findPackage(name));
+        }
+
+        DuplicateScan scan = new DuplicateScan(new File(L2PE.getDataDir(), "hashes"), new MetadataCache(new File(L2PE.getDataDir(), "metadata")));
+        DuplicateScan.Result result = scan.scan(packages, minSize);
+
+        Writer out = new BufferedWriter(new OutputStreamWriter(outFile == null ? System.out : new FileOutputStream(outFile), StandardCharsets.UTF_8));
+        try {
+            for (DuplicateScan.Group group : result.getGroups()) {
+                out.write(group + "\n");
+                for (DuplicateScan.Location location : group.getLocations())
+                    out.write("\t" + location.getName() + "\t" + location.getFile() + "\n");
+            }
+        } finally {
+            if (outFile == null)
+                out.flush();
+            else
+                out.close();
+        }
+        System.err.println(result.getGroups().size() + " group(s), " + result.getWasted() + " bytes in duplicates");
+
+        result.getFailures().forEach(System.err::println);
+        if (!result.getFailures().isEmpty())
+            throw new IllegalStateException(result.getFailures().size() + " package(s) failed");
+    }
+
+    /**
+     * Checks that the defaults cache removes the same properties as PropertiesUtil.removeDefaults.
+     */
+    public void checkDefaults(List<String> params) {
+        List<File> packages = new ArrayList<>();
+        if (params.isEmpty()) {
+            environment.listFiles().forEach(packages::add);
+        } else {
+            for (String name : params)
+                packages.add(findPackage(name));
+        }
+
+        int checked = 0;
+        int different = 0;
+        int failed = 0;
+        for (File file : packages) {
+            try (UnrealPackage up = Util.openPackage(file, true)) {
+                for (UnrealPackage.ExportEntry entry : up.getExportTable()) {
+                    if (entry.getObjectClass() == null && entry.getObjectSuperClass() == null)
+                        continue;
+
+                    try {
+                        Object object = Util.loadObject(serializerFactory, entry);
+                        String className = entry.getObjectClass() == null ? entry.getObjectSuperClass().getObjectFullName() : entry.getFullClassName();
+                        List<String> differences = DefaultProperties.compare(object.properties, className, serializerFactory, up);
+                        checked++;
+                        if (!differences.isEmpty()) {
+                            different++;
+                            System.out.println(entry.getObjectFullName() + "\t" + String.join(", ", differences));
+                        }
+                    } catch (Exception e) {
+                        failed++;
+                        System.err.println(entry.getObjectFullName() + ": " + e);
+                    }
+                }
+            } catch (Exception e) {
+                failed++;
+                System.err.println(file + ": " + e);
+            }
+        }
+        System.err.println(checked + " export(s) checked, " + different + " different, " + failed + " failed");
+        if (different > 0)
+            throw new IllegalStateException(different + " export(s) differ");
+    }
+
+    /**
+     * Checks that Decompiler.formatFloat prints the same text as {@code String.format(Locale.US, "%f")}
+     * on edge values, then on count draws split between random bit patterns, random values below 1e12
+     * and rounding ties of the 6th fraction digit (the nearest float and both neighbours).
+     * Chunks of a million draws use fixed seeds, so runs are repeatable.
+     */
+    public void checkFloats(List<String> params) {
+        long count = params.isEmpty() ? 10_000_000L : Long.parseLong(params.get(0));
+
+        LongAdder checked = new LongAdder();
+        LongAdder different = new LongAdder();
+        float[] edges = {0f, -0f, Float.MIN_VALUE, -Float.MIN_VALUE, Float.MIN_NORMAL, Float.MAX_VALUE, -Float.MAX_VALUE,
+                Float.NaN, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY,
+                1e12f, Math.nextDown(1e12f), -Math.nextDown(1e12f), 5e-7f, Math.nextUp(5e-7f), Math.nextDown(5e-7f), 0.5f, 1.5f};
+        for (float value : edges)
+            checkFloat(value, checked, different);
+
+        long chunk = 1_000_000L;
+        LongStream.range(0, (count + chunk - 1) / chunk).parallel().forEach(c -> {
+            Random random = new Random(c);
+            for (long i = c * chunk; i < Math.min(count, (c + 1) * chunk); i++) {
+                switch ((int) (i % 3)) {
+                    case 0:
+                        checkFloat(Float.intBitsToFloat(random.nextInt()), checked, different);
+                        break;
+                    case 1:
+                        checkFloat((float) ((random.nextBoolean() ? 1 : -1) * random.nextDouble() * Math.pow(10, random.nextInt(19) - 6)), checked, different);
+                        break;
+                    default:
+                        //(k + 0.5) / 10^6, the float nearest to it and its neighbours
+                        long k = (long) (random.nextDouble() * Math.pow(10, random.nextInt(19)));
+                        float tie = (float) ((k + 0.5) / 1e6);
+                        checkFloat(tie, checked, different);
+                        checkFloat(Math.nextUp(tie), checked, different);
+                        checkFloat(Math.nextDown(tie), checked, different);
+                        break;
+                }
+            }
+        });
+
+        System.err.println(checked.sum() + " float(s) checked, " + different.sum() + " different");
+        if (different.sum() > 0)
+            throw new IllegalStateException(different.sum() + " float(s) differ");
+    }
+
+    private static void checkFloat(float value, LongAdder checked, LongAdder different) {
+        checked.increment();
+        String expected = String.format(Locale.US, "%f", value);
+        String actual = Decompiler.formatFloat(value);
+        if (!actual.equals(expected)) {
+            different.increment();
+            synchronized (System.out) {
+                System.out.println(Integer.toHexString(Float.floatToRawIntBits(value)) + "\t" + actual + "\t" + expected);
+            }
+        }
+    }
+
+    public void query(List<String> params) throws IOException {
+        params = new ArrayList<>(params);
+        File outFile = option(params, "-o");
+        require(params, 1);
+
+        PropertyQuery query = PropertyQuery.parse(params.get(0));
+        List<File> packages = new ArrayList<>();
+        if (params.size() > 1) {
+            for (String name : params.subList(1, params.size()))
+                packages.add(findPackage(name));
+        } else {
+            environment.listFiles().forEach(packages::add);
+        }
+
+        Writer out = new BufferedWriter(new OutputStreamWriter(outFile == null ? System.out : new FileOutputStream(outFile), StandardCharsets.UTF_8));
+        List<String> failures;
+        try {
+            failures = query.scan(packages, new SerializerFactoryPool(ini), new MetadataCache(new File(L2PE.getDataDir(), "metadata")), match -> {
+                synchronized (out) {
+                    try {
+                        out.write(match + "\t" + match.getFile() + "\n");
+                        out.flush();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            }, () -> false);
+        } finally {
+            if (outFile == null)
+                out.flush();
+            else
+                out.close();
+        }
+        failures.forEach(System.err::println);
+        if (!failures.isEmpty())
+            throw new IllegalStateException(failures.size() + " failure(s)");
+    }
+
+    public void addName(List<String> params) throws IOException {
+        require(params, 2);
+
+        commit(new EditSession(serializerFactory, findPackage(params.get(0)))
+                .addNames(params.subList(1, params.size()).toArray(new String[params.size() - 1])));
+    }
+
+    public void addImport(List<String> params) throws IOException {
+        require(params, 3);
+
+        commit(new EditSession(serializerFactory, findPackage(params.get(0)))
+                .addImport(params.get(1), params.get(2)));
+    }
+
+    public void addObject(List<String> params) throws IOException {
+        require(params, 3);
+
+        boolean hasStack = params.size() > 3 && params.get(3).equalsIgnoreCase("hasStack");
+        commit(new EditSession(serializerFactory, findPackage(params.get(0)))
+                .addObject(params.get(1), params.get(2), UnrealPackage.DEFAULT_OBJECT_FLAGS, hasStack, Collections.emptyList()));
+    }
+
+    public void addClass(List<String> params) throws IOException {
+        require(params, 3);
+
+        commit(new EditSession(serializerFactory, findPackage(params.get(0)))
+                .addClass(params.get(1), params.get(2), UnrealPackage.DEFAULT_OBJECT_FLAGS, Collections.emptyList()));
+    }
+
+    public void edit(List<String> params) throws IOException {
+        require(params, 2);
+
+        EditSession session = new EditSession(serializerFactory, findPackage(params.get(0)));
+        List<String> lines = Files.readAllLines(new File(params.get(1)).toPath(), StandardCharsets.UTF_8);
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+
+            List<String> args = Arrays.asList(line.split("\\s+"));
+            try {
+                switch (args.get(0)) {
+                    case "name":
+                        require(args, 2);
+                        session.addNames(args.subList(1, args.size()).toArray(new String[args.size() - 1]));
+                        break;
+                    case "import":
+                        require(args, 3);
+                        session.addImport(args.get(1), args.get(2));
+                        break;
+                    case "object":
+                        require(args, 3);
+                        session.addObject(args.get(1), args.get(2), UnrealPackage.DEFAULT_OBJECT_FLAGS, args.size() > 3 && args.get(3).equalsIgnoreCase("hasStack"), Collections.emptyList());
+                        break;
+                    case "class":
+                        require(args, 3);
+                        session.addClass(args.get(1), args.get(2), UnrealPackage.DEFAULT_OBJECT_FLAGS, Collections.emptyList());
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown edit: " + args.get(0));
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(params.get(1) + ":" + (i + 1) + ": " + e.getMessage(), e);
+            }
+        }
+
+        log.info(() -> String.format("%s: %d edit(s)", session.getFile(), session.size()));
+        commit(session);
+    }
+
+    public void bulkEdit(List<String> params) throws IOException {
+        require(params, 3);
+
+        EditSession session = new EditSession(serializerFactory, findPackage(params.get(0)));
+        BulkEdit bulkEdit = new BulkEdit(new SerializerFactoryPool(ini), params.get(1), BulkEdit.parseAssignments(params.subList(2, params.size())), SAVE_DEFAULTS);
+        BulkEdit.Result result = bulkEdit.apply(session);
+        result.getChanges().forEach(change -> System.out.println(change.getName()));
+        result.getFailures().forEach(System.err::println);
+        if (!result.getFailures().isEmpty())
+            throw new IllegalStateException(result.getFailures().size() + " export(s) failed, nothing saved");
+
+        commit(session);
+    }
+
+    public void importProperties(List<String> params) throws IOException {
+        require(params, 2);
+
+        List<Path> files = new ArrayList<>();
+        for (String param : params.subList(1, params.size())) {
+            try (Stream<Path> stream = Files.walk(Paths.get(param))) {
+                stream.filter(path -> path.getFileName().toString().toLowerCase().endsWith(".txt"))
+                        .sorted()
+                        .forEach(files::add);
+            }
+        }
+
+        EditSession session = new EditSession(serializerFactory, findPackage(params.get(0)));
+        PropertiesImporter importer = new PropertiesImporter(serializerFactory);
+        try (UnrealPackage up = Util.openPackage(session.getFile(), true)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                UnrealPackage.ExportEntry entry = findEntry(up, name.substring(0, name.length() - ".txt".length()));
+                try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                    for (Object object : importer.read(entry, reader))
+                        session.save(object.entry.getIndex(), object);
+                }
+                System.out.println(entry.getObjectFullName());
+            }
+        }
+
+        commit(session);
+    }
+
+    private void commit(EditSession session) throws IOException {
+        try {
+            session.commit();
+        } finally {
+            markInvalid(Util.getPackageName(session.getFile()));
+        }
+    }
+}
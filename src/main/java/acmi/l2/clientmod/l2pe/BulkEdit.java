@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.l2pe;
+
+import acmi.l2.clientmod.io.UnrealPackage;
+import acmi.l2.clientmod.unreal.UnrealSerializerFactory;
+import acmi.l2.clientmod.unreal.core.Object;
+import acmi.l2.clientmod.unreal.properties.PropertiesUtil;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.logging.Logger;
+
+/**
+ * Sets property values on every export of a class or its subclasses.
+ * Exports are decoded and modified in parallel, each worker with its own serializer factory,
+ * then saved through an {@link EditSession} in one write with the factory that loaded them.
+ */
+public class BulkEdit {
+    private static final Logger log = Logger.getLogger(BulkEdit.class.getName());
+
+    private static final int SPLIT_THRESHOLD = Integer.getInteger("L2pe.bulkEditSplit", 256);
+
+    private final SerializerFactoryPool factories;
+    private final String className;
+    private final Map<PropertyPath, String> assignments;
+    private final boolean saveDefaults;
+
+    /**
+     * @param className   Package.Class or Class, subclasses included, * for all exports
+     * @param assignments property path to value as printed by {@link Decompiler}
+     */
+    public BulkEdit(SerializerFactoryPool factories, String className, Map<PropertyPath, String> assignments, boolean saveDefaults) {
+        this.factories = factories;
+        this.className = className;
+        this.assignments = assignments;
+        this.saveDefaults = saveDefaults;
+    }
+
+    public static Map<PropertyPath, String> parseAssignments(Collection<String> lines) {
+        Map<PropertyPath, String> assignments = new LinkedHashMap<>();
+        for (String line : lines) {
+            if (line.trim().isEmpty())
+                continue;
+            int eq = line.indexOf('=');
+            if (eq < 0)
+                throw new IllegalArgumentException("Expected path=value: " + line);
+            assignments.put(PropertyPath.parse(line.substring(0, eq)), line.substring(eq + 1).trim());
+        }
+        return assignments;
+    }
+
+    /**
+     * Subclasses match too, like the class filter of {@link PropertyQuery}.
+     *
+     * @param cache results by export class for this factory
+     */
+    public boolean matches(UnrealPackage.ExportEntry entry, UnrealSerializerFactory objectFactory, Map<String, Boolean> cache) {
+        if (className.equals("*"))
+            return true;
+        if (entry.getObjectClass() == null)
+            return false;
+        return PropertyQuery.isSubclass(entry.getObjectClass().getObjectFullName(), className, objectFactory, cache);
+    }
+
+    /**
+     * Queues saves of modified exports into the session.
+     */
+    public Result apply(EditSession session) {
+        Result result = prepare(session.getFile());
+        for (Change change : result.changes)
+            session.save(change.exportIndex, change.object, change.objectFactory);
+        return result;
+    }
+
+    public Result prepare(File file) {
+        ForkJoinPool pool = new ForkJoinPool();
+        try (UnrealPackage up = Util.openPackage(file, true)) {
+            int count = up.getExportTable().size();
+            List<ExportsTask> tasks = new ArrayList<>();
+            for (int from = 0; from < count; from += SPLIT_THRESHOLD)
+                tasks.add(new ExportsTask(up, from, Math.min(count, from + SPLIT_THRESHOLD)));
+
+            Result result = pool.invoke(new RecursiveTask<Result>() {
+                @Override
+                protected Result compute() {
+                    invokeAll(tasks);
+                    Result result = new Result();
+                    for (ExportsTask task : tasks) {
+                        Result r = task.join();
+                        result.changes.addAll(r.changes);
+                        result.failures.addAll(r.failures);
+                    }
+                    return result;
+                }
+            });
+            log.fine(() -> String.format("%s: %d change(s), %d failure(s)", file, result.changes.size(), result.failures.size()));
+            return result;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private class ExportsTask extends RecursiveTask<Result> {
+        private final UnrealPackage up;
+        private final int from;
+        private final int to;
+
+        ExportsTask(UnrealPackage up, int from, int to) {
+            this.up = up;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Result compute() {
+            Result result = new Result();
+            UnrealSerializerFactory factory = factories.get();
+            Map<String, Boolean> classes = new HashMap<>();
+            for (int i = from; i < to; i++) {
+                UnrealPackage.ExportEntry entry = up.getExportTable().get(i);
+                if (!matches(entry, factory, classes))
+                    continue;
+
+                try {
+                    Object object = Decompiler.instantiate(entry, factory);
+                    for (Map.Entry<PropertyPath, String> assignment : assignments.entrySet())
+                        assignment.getKey().set(object, assignment.getValue(), factory);
+                    if (!saveDefaults)
+                        PropertiesUtil.removeDefaults(object.properties, entry.getObjectClass() == null ? entry.getObjectSuperClass().getObjectFullName() : entry.getFullClassName(), factory, up);
+                    result.changes.add(new Change(i, entry.getObjectFullName(), object, factory));
+                } catch (Exception e) {
+                    result.failures.add(entry.getObjectFullName() + ": " + e);
+                }
+            }
+            return result;
+        }
+    }
+
+    public static class Result {
+        private final List<Change> changes = new ArrayList<>();
+        private final List<String> failures = new ArrayList<>();
+
+        public List<Change> getChanges() {
+            return changes;
+        }
+
+        public List<String> getFailures() {
+            return failures;
+        }
+    }
+
+    public static class Change {
+        private final int exportIndex;
+        private final String name;
+        private final Object object;
+        private final UnrealSerializerFactory objectFactory;
+
+        Change(int exportIndex, String name, Object object, UnrealSerializerFactory objectFactory) {
+            this.exportIndex = exportIndex;
+            this.name = name;
+            this.object = object;
+            this.objectFactory = objectFactory;
+        }
+
+        public int getExportIndex() {
+            return exportIndex;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Object getObject() {
+            return object;
+        }
+
+        /**
+         * Factory that loaded the object, it has to be saved with it.
+         */
+        public UnrealSerializerFactory getObjectFactory() {
+            return objectFactory;
+        }
+    }
+}
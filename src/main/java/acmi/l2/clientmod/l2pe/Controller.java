@@ -21,20 +21,19 @@
  */
 package acmi.l2.clientmod.l2pe;
 
-import acmi.l2.clientmod.io.ObjectOutput;
-import acmi.l2.clientmod.io.ObjectOutputStream;
 import acmi.l2.clientmod.io.UnrealPackage;
 import acmi.l2.clientmod.properties.control.PropertiesEditor;
 import acmi.l2.clientmod.unreal.Environment;
-import acmi.l2.clientmod.unreal.UnrealRuntimeContext;
+import acmi.l2.clientmod.unreal.UnrealSerializerFactory;
+import acmi.l2.clientmod.unreal.core.ArrayProperty;
 import acmi.l2.clientmod.unreal.core.Class;
 import acmi.l2.clientmod.unreal.core.Object;
-import acmi.l2.clientmod.unreal.engine.Texture;
+import acmi.l2.clientmod.unreal.core.Property;
 import acmi.l2.clientmod.unreal.properties.L2Property;
 import acmi.l2.clientmod.unreal.properties.PropertiesUtil;
 import acmi.util.AutoCompleteComboBox;
 import javafx.application.Platform;
-import javafx.beans.Observable;
+import javafx.beans.InvalidationListener;
 import javafx.beans.binding.Bindings;
 import javafx.beans.binding.BooleanBinding;
 import javafx.beans.property.ObjectProperty;
@@ -47,6 +46,7 @@ import javafx.scene.control.*;
 import javafx.scene.layout.GridPane;
 import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import javafx.stage.StageStyle;
 import javafx.util.Pair;
@@ -55,6 +55,9 @@ import javafx.util.StringConverter;
 import java.io.*;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -84,7 +87,9 @@ public class Controller extends ControllerBase implements Initializable {
     @FXML
     private Separator entrySeparator;
     @FXML
-    private ComboBox<UnrealPackage.ExportEntry> entrySelector;
+    private TextField entryFilter;
+    @FXML
+    private ComboBox<PackageMetadata.Export> entrySelector;
     @FXML
     private Button addName;
     @FXML
@@ -98,11 +103,26 @@ public class Controller extends ControllerBase implements Initializable {
     @FXML
     private CheckMenuItem showAllProperties;
     @FXML
+    private CheckMenuItem prefetch;
+    @FXML
+    private CheckMenuItem queueEdits;
+    @FXML
+    private MenuItem commitEdits;
+    @FXML
+    private MenuItem discardEdits;
+    @FXML
     private PropertiesEditor properties;
     @FXML
     private ProgressIndicator loading;
 
     private L2PE application;
+    private String pendingEntry;
+    private boolean refreshing;
+    private SubstringIndex<PackageMetadata.Export> entryIndex;
+    private PackageMetadata entryMetadata;
+    private long loadedModified;
+    private final AtomicInteger running = new AtomicInteger();
+    private final Map<File, EditSession> editSessions = new LinkedHashMap<>();
     private ObjectProperty<File> initialDirectory = new SimpleObjectProperty<>(this, "initialDirectory");
 
     public void setApplication(L2PE application) {
@@ -122,18 +142,20 @@ public class Controller extends ControllerBase implements Initializable {
     }
 
     @Override
-    protected void execute(Task task, Consumer<Exception> exceptionHandler) {
-        super.execute(wrap(task), exceptionHandler);
+    protected void execute(String key, TaskScheduler.Priority priority, TaskScheduler.Access access, File file, Task task, Consumer<Exception> exceptionHandler) {
+        super.execute(key, priority, access, file, priority == TaskScheduler.Priority.UI ? wrap(task) : task, exceptionHandler);
     }
 
     private Task wrap(Task task) {
         return () -> {
-            Platform.runLater(() -> loading.setVisible(true));
+            if (running.getAndIncrement() == 0)
+                Platform.runLater(() -> loading.setVisible(running.get() > 0));
 
             try {
                 task.run();
             } finally {
-                Platform.runLater(() -> loading.setVisible(false));
+                if (running.decrementAndGet() == 0)
+                    Platform.runLater(() -> loading.setVisible(running.get() > 0));
             }
         };
     }
@@ -146,16 +168,25 @@ public class Controller extends ControllerBase implements Initializable {
                 L2PE.getPrefs().put("initialDirectory", newVal.getPath());
         });
 
+        prefetch.setSelected(L2PE.getPrefs().getBoolean("prefetch", true));
+        prefetch.selectedProperty().addListener((observable, oldVal, newVal) -> {
+            L2PE.getPrefs().putBoolean("prefetch", newVal);
+            if (!newVal)
+                cancel("prefetch");
+        });
+
         properties.editableOnlyProperty().bind(showAllProperties.selectedProperty().not());
         properties.serializerProperty().bind(serializerFactoryProperty());
         properties.unrealPackageProperty().bind(unrealPackageProperty());
-        packagesProperty().addListener((Observable observable) -> {
+        packagesProperty().addListener((observable, oldValue, newValue) -> {
+            if (oldValue == newValue) {
+                refreshFolders();
+                return;
+            }
+
             folderSelector.getSelectionModel().clearSelection();
             folderSelector.getItems().clear();
-            folderSelector.getItems().addAll(getPackages().keySet()
-                    .stream()
-                    .sorted((f1, f2) -> f1.getName().compareToIgnoreCase(f2.getName()))
-                    .collect(Collectors.toList()));
+            folderSelector.getItems().addAll(getFolders());
         });
 
         folderSeparator.visibleProperty().bind(environmentSelected());
@@ -179,6 +210,9 @@ public class Controller extends ControllerBase implements Initializable {
         packageSelector.visibleProperty().bind(folderSelected);
         packageSelector.setConverter(name);
         folderSelector.getSelectionModel().selectedIndexProperty().addListener((observable) -> {
+            if (refreshing)
+                return;
+
             packageSelector.getSelectionModel().clearSelection();
             packageSelector.getItems().clear();
 
@@ -190,19 +224,46 @@ public class Controller extends ControllerBase implements Initializable {
             AutoCompleteComboBox.autoCompleteComboBox(packageSelector, AutoCompleteComboBox.AutoCompleteMode.CONTAINING);
         });
         packageSelector.getSelectionModel().selectedIndexProperty().addListener((observable) -> {
+            if (refreshing)
+                return;
+
             entrySelector.getSelectionModel().clearSelection();
             entrySelector.getItems().clear();
+            entryIndex = null;
+            entryMetadata = null;
 
             setUnrealPackage(null);
 
             File newValue = getSelectedItem(packageSelector);
+            packageSelector.setTooltip(null);
 
             if (newValue == null)
                 return;
 
-            execute(() -> {
-                try (UnrealPackage up = new UnrealPackage(newValue, true)) {
-                    Platform.runLater(() -> setUnrealPackage(up));
+            execute("metadata", TaskScheduler.Priority.UI, TaskScheduler.Access.READ, newValue, () -> {
+                PackageMetadata metadata = getMetadataCache().get(newValue);
+                SubstringIndex<PackageMetadata.Export> index = indexEntries(metadata);
+                TaskScheduler.checkCancelled();
+                Platform.runLater(() -> {
+                    if (newValue.equals(getSelectedItem(packageSelector)))
+                        showEntries(metadata, index);
+                });
+            }, e -> log.log(Level.WARNING, e, () -> "Couldn't read metadata: " + newValue));
+
+            execute("package", TaskScheduler.Priority.UI, TaskScheduler.Access.READ, newValue, () -> {
+                long modified = newValue.lastModified();
+                try (UnrealPackage up = Util.openPackage(newValue, true)) {
+                    //the list shows metadata, it is read again if the package changed since
+                    PackageMetadata metadata = getMetadataCache().get(newValue);
+                    TaskScheduler.checkCancelled();
+                    Platform.runLater(() -> {
+                        if (newValue.equals(getSelectedItem(packageSelector))) {
+                            loadedModified = modified;
+                            if (entryMetadata != metadata)
+                                showEntries(metadata, indexEntries(metadata));
+                            setUnrealPackage(up);
+                        }
+                    });
                 }
             }, e -> {
                 log.log(Level.SEVERE, e, () -> "Couldn't load: " + newValue);
@@ -211,30 +272,51 @@ public class Controller extends ControllerBase implements Initializable {
             });
         });
 
+        BooleanBinding entriesVisible = packageSelector.getSelectionModel().selectedItemProperty().isNotNull();
         packageMenu.disableProperty().bind(packageSelected().not());
-        entrySeparator.visibleProperty().bind(packageSelected());
+        entrySeparator.visibleProperty().bind(entriesVisible);
         addName.visibleProperty().bind(packageSelected());
         addImport.visibleProperty().bind(packageSelected());
         addExport.visibleProperty().bind(packageSelected());
-        entrySelector.visibleProperty().bind(packageSelected());
+        entrySelector.visibleProperty().bind(entriesVisible);
         unrealPackageProperty().addListener((observable, oldValue, newValue) -> {
-            entrySelector.getSelectionModel().clearSelection();
-            entrySelector.getItems().clear();
+            setEntry(null);
 
-            if (newValue == null)
+            if (newValue == null) {
+                cancel("prefetch");
                 return;
+            }
 
-            entrySelector.getItems().addAll(newValue.getExportTable()
-                    .stream()
-                    .sorted((e1, e2) -> e1.getObjectFullName().compareToIgnoreCase(e2.getObjectFullName()))
-                    .collect(Collectors.toList())
-            );
-
-            AutoCompleteComboBox.autoCompleteComboBox(entrySelector, AutoCompleteComboBox.AutoCompleteMode.CONTAINING);
+            selectPendingEntry();
+            setEntry(toEntry(getSelectedItem(entrySelector)));
+            if (getEntry() == null && prefetch.isSelected())
+                prefetch(toEntries(entrySelector.getItems()));
         });
 
+        entryFilter.visibleProperty().bind(entriesVisible);
+        entryFilter.textProperty().addListener((observable, oldValue, newValue) -> {
+            if (entryIndex == null)
+                return;
+
+            PackageMetadata.Export selected = getSelectedItem(entrySelector);
+            refreshing = true;
+            try {
+                entrySelector.getItems().setAll(entryIndex.find(newValue));
+                if (selected != null)
+                    entrySelector.getSelectionModel().select(selected);
+            } finally {
+                refreshing = false;
+            }
+        });
+        entryFilter.setOnAction(event -> {
+            if (!entrySelector.getItems().isEmpty())
+                entrySelector.show();
+        });
         entrySelector.getSelectionModel().selectedIndexProperty().addListener(observable -> {
-            setEntry(getSelectedItem(entrySelector));
+            if (refreshing)
+                return;
+
+            setEntry(toEntry(getSelectedItem(entrySelector)));
         });
         entryProperty().addListener((observable, oldValue, newValue) -> {
             setObject(null);
@@ -242,7 +324,17 @@ public class Controller extends ControllerBase implements Initializable {
             if (newValue == null)
                 return;
 
-            execute(() -> setObject(getSerializerFactory().getOrCreateObject(newValue)), e -> {
+            execute("entry", TaskScheduler.Priority.UI, TaskScheduler.Access.SERIAL, null, () -> {
+                ObjectCache.Loaded loaded = getObjectCache().load(newValue);
+                TaskScheduler.checkCancelled();
+                Platform.runLater(() -> {
+                    if (newValue == getEntry()) {
+                        setObject(loaded);
+                        if (prefetch.isSelected())
+                            prefetch(getLikelyEntries(newValue, loaded.getObject()));
+                    }
+                });
+            }, e -> {
                 log.log(Level.SEVERE, e, () -> "Couldn't load entry");
 
                 showException("Couldn't load entry", e);
@@ -264,6 +356,13 @@ public class Controller extends ControllerBase implements Initializable {
         save.visibleProperty().bind(entrySelected());
         copy.visibleProperty().bind(Bindings.createBooleanBinding(() -> canCopy(getObject()), objectProperty()));
 
+        environmentProperty().addListener(observable -> discardEdits());
+        queueEdits.selectedProperty().addListener((observable, oldValue, newValue) -> {
+            if (!newValue)
+                commitEdits();
+        });
+        updateEditSessions();
+
         loading.setVisible(false);
     }
 
@@ -286,7 +385,9 @@ public class Controller extends ControllerBase implements Initializable {
         setInitialDirectory(selected.getParentFile());
 
         try {
-            setEnvironment(Environment.fromIni(selected));
+            Environment environment = Environment.fromIni(selected);
+            setIni(selected);
+            setEnvironment(environment);
         } catch (Exception e) {
             log.log(Level.SEVERE, e, () -> "Couldn't load L2.ini");
 
@@ -301,6 +402,382 @@ public class Controller extends ControllerBase implements Initializable {
         });
     }
 
+    public void find() {
+        if (!isEnvironmentSelected())
+            return;
+
+        Dialog<ExportIndex.Hit> dialog = new Dialog<>();
+        dialog.setTitle("Find export");
+        dialog.setHeaderText(null);
+
+        TextField query = new TextField();
+        query.setPromptText("Package.Group.Name");
+        ListView<ExportIndex.Hit> results = new ListView<>();
+        results.setPrefSize(600, 400);
+        Label status = new Label();
+
+        Runnable search = () -> {
+            ExportIndex index = getExportIndex();
+            if (index == null) {
+                status.setText("Indexing...");
+                results.getItems().clear();
+                return;
+            }
+
+            status.setText(index.size() + " entries indexed");
+            String text = query.getText();
+            if (text.isEmpty()) {
+                cancel("find");
+                results.getItems().clear();
+                return;
+            }
+
+            execute("find", TaskScheduler.Priority.UI, TaskScheduler.Access.CONCURRENT, null, () -> {
+                List<ExportIndex.Hit> hits = index.find(text, 1000);
+                TaskScheduler.checkCancelled();
+                Platform.runLater(() -> {
+                    if (text.equals(query.getText()) && getExportIndex() == index)
+                        results.getItems().setAll(hits);
+                });
+            }, e -> log.log(Level.WARNING, e, () -> "Couldn't find exports"));
+        };
+        InvalidationListener indexListener = observable -> search.run();
+        query.textProperty().addListener(indexListener);
+        exportIndexProperty().addListener(indexListener);
+        search.run();
+
+        results.setOnMouseClicked(event -> {
+            if (event.getClickCount() == 2 && results.getSelectionModel().getSelectedItem() != null)
+                dialog.setResult(results.getSelectionModel().getSelectedItem());
+        });
+
+        VBox content = new VBox(10, query, results, status);
+        VBox.setVgrow(results, Priority.ALWAYS);
+        dialog.getDialogPane().setContent(content);
+        dialog.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
+        dialog.setResultConverter(dialogButton -> dialogButton == ButtonType.OK ? results.getSelectionModel().getSelectedItem() : null);
+        Platform.runLater(query::requestFocus);
+
+        try {
+            dialog.showAndWait()
+                    .ifPresent(hit -> select(hit.getFile(), hit.getName()));
+        } finally {
+            cancel("find");
+            exportIndexProperty().removeListener(indexListener);
+        }
+    }
+
+    public void query() {
+        if (!isEnvironmentSelected())
+            return;
+
+        Dialog<ExportIndex.Hit> dialog = new Dialog<>();
+        dialog.setTitle("Query exports");
+        dialog.setHeaderText(null);
+
+        TextField query = new TextField();
+        query.setPromptText("Emitter: MaxParticles > 500");
+        CheckBox packageOnly = new CheckBox("Selected package only");
+        packageOnly.setSelected(isPackageSelected());
+        packageOnly.disableProperty().bind(packageSelected().not());
+        ListView<ExportIndex.Hit> results = new ListView<>();
+        results.setPrefSize(700, 400);
+        Label status = new Label();
+
+        AtomicReference<AtomicBoolean> current = new AtomicReference<>(new AtomicBoolean());
+        Runnable search = () -> {
+            current.get().set(true);
+            AtomicBoolean cancelled = new AtomicBoolean();
+            current.set(cancelled);
+            results.getItems().clear();
+
+            PropertyQuery q;
+            try {
+                q = PropertyQuery.parse(query.getText());
+            } catch (IllegalArgumentException e) {
+                status.setText(e.getMessage());
+                return;
+            }
+
+            List<File> files = packageOnly.isSelected() && isPackageSelected() ?
+                    Collections.singletonList(getSelectedItem(packageSelector)) :
+                    getPackages().values().stream().flatMap(List::stream).collect(Collectors.toList());
+            SerializerFactoryPool factories = getSerializerFactoryPool();
+            List<ExportIndex.Hit> pending = new ArrayList<>();
+            Runnable flush = () -> {
+                synchronized (pending) {
+                    if (!cancelled.get())
+                        results.getItems().addAll(pending);
+                    pending.clear();
+                }
+            };
+
+            status.setText("Searching...");
+            execute("query", TaskScheduler.Priority.UI, TaskScheduler.Access.CONCURRENT, null, () -> {
+                List<String> failures = q.scan(files, factories, getMetadataCache(), this::readLock, match -> {
+                    synchronized (pending) {
+                        if (pending.isEmpty())
+                            Platform.runLater(flush);
+                        pending.add(match);
+                    }
+                }, cancelled::get);
+                failures.forEach(failure -> log.fine(() -> "Query: " + failure));
+                Platform.runLater(() -> {
+                    flush.run();
+                    if (!cancelled.get())
+                        status.setText(results.getItems().size() + " found" + (failures.isEmpty() ? "" : ", " + failures.size() + " failed"));
+                });
+            }, e -> {
+                log.log(Level.WARNING, e, () -> "Couldn't query exports");
+
+                Platform.runLater(() -> status.setText(e.toString()));
+            });
+        };
+        query.setOnAction(event -> search.run());
+
+        results.setOnMouseClicked(event -> {
+            if (event.getClickCount() == 2 && results.getSelectionModel().getSelectedItem() != null)
+                dialog.setResult(results.getSelectionModel().getSelectedItem());
+        });
+
+        VBox content = new VBox(10, query, packageOnly, results, status);
+        VBox.setVgrow(results, Priority.ALWAYS);
+        dialog.getDialogPane().setContent(content);
+        dialog.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
+        dialog.setResultConverter(dialogButton -> dialogButton == ButtonType.OK ? results.getSelectionModel().getSelectedItem() : null);
+        Platform.runLater(query::requestFocus);
+
+        try {
+            dialog.showAndWait()
+                    .ifPresent(hit -> select(hit.getFile(), hit.getName()));
+        } finally {
+            current.get().set(true);
+        }
+    }
+
+    public void findReferences() {
+        UnrealPackage.ExportEntry entry = getEntry();
+        if (entry == null)
+            return;
+
+        String fullName = entry.getObjectFullName();
+        requestReferenceIndex();
+
+        Dialog<ExportIndex.Hit> dialog = new Dialog<>();
+        dialog.setTitle("References to " + fullName);
+        dialog.setHeaderText(null);
+
+        ListView<ExportIndex.Hit> results = new ListView<>();
+        results.setPrefSize(600, 400);
+        Label status = new Label();
+
+        Runnable search = () -> {
+            ReferenceIndex index = getReferenceIndex();
+            if (index == null) {
+                status.setText("Indexing references...");
+                results.getItems().clear();
+                return;
+            }
+
+            results.getItems().setAll(index.find(fullName, getMetadataCache()));
+            List<String> failures = index.getFailures(getMetadataCache());
+            status.setText(results.getItems().size() + " reference(s)" + (failures.isEmpty() ? "" :
+                    ", " + failures.size() + " package(s)/export(s) couldn't be indexed and may reference it"));
+            status.setTooltip(failures.isEmpty() ? null :
+                    new Tooltip(failures.stream().limit(20).collect(Collectors.joining("\n")) + (failures.size() > 20 ? "\n..." : "")));
+        };
+        InvalidationListener indexListener = observable -> search.run();
+        referenceIndexProperty().addListener(indexListener);
+        search.run();
+
+        results.setOnMouseClicked(event -> {
+            if (event.getClickCount() == 2 && results.getSelectionModel().getSelectedItem() != null)
+                dialog.setResult(results.getSelectionModel().getSelectedItem());
+        });
+
+        VBox content = new VBox(10, results, status);
+        VBox.setVgrow(results, Priority.ALWAYS);
+        dialog.getDialogPane().setContent(content);
+        dialog.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
+        dialog.setResultConverter(dialogButton -> dialogButton == ButtonType.OK ? results.getSelectionModel().getSelectedItem() : null);
+
+        try {
+            dialog.showAndWait()
+                    .ifPresent(hit -> select(hit.getFile(), hit.getExportIndex() == ReferenceIndex.IMPORT ? null : hit.getName()));
+        } finally {
+            referenceIndexProperty().removeListener(indexListener);
+        }
+    }
+
+    /**
+     * Exports the object references, then the ones following it in the list.
+     */
+    private Collection<UnrealPackage.ExportEntry> getLikelyEntries(UnrealPackage.ExportEntry entry, Object object) {
+        Set<UnrealPackage.ExportEntry> entries = new LinkedHashSet<>();
+        UnrealPackage up = entry.getUnrealPackage();
+        for (L2Property property : object.properties) {
+            Property template = property.getTemplate();
+            for (int i = 0; i < template.arrayDimension; i++) {
+                java.lang.Object value = property.getAt(i);
+                if (template instanceof acmi.l2.clientmod.unreal.core.ObjectProperty) {
+                    addExport(entries, up, value);
+                } else if (template instanceof ArrayProperty && ((ArrayProperty) template).inner instanceof acmi.l2.clientmod.unreal.core.ObjectProperty && value != null) {
+                    for (java.lang.Object item : (List<?>) value)
+                        addExport(entries, up, item);
+                }
+            }
+        }
+
+        List<PackageMetadata.Export> items = entrySelector.getItems();
+        int index = -1;
+        for (int i = 0; i < items.size() && index < 0; i++)
+            if (items.get(i).getName().equalsIgnoreCase(entry.getObjectFullName()))
+                index = i;
+        for (int i = index + 1; i < items.size() && i <= index + 64; i++)
+            entries.add(up.getExportTable().get(items.get(i).getIndex()));
+
+        entries.remove(entry);
+        return entries;
+    }
+
+    private static void addExport(Set<UnrealPackage.ExportEntry> entries, UnrealPackage up, java.lang.Object reference) {
+        if (!(reference instanceof Integer))
+            return;
+        UnrealPackage.Entry entry = up.objectReference((Integer) reference);
+        if (entry instanceof UnrealPackage.ExportEntry)
+            entries.add((UnrealPackage.ExportEntry) entry);
+    }
+
+    private static SubstringIndex<PackageMetadata.Export> indexEntries(PackageMetadata metadata) {
+        return new SubstringIndex<>(Arrays.asList(metadata.getExports()), PackageMetadata.Export::getName);
+    }
+
+    /**
+     * Entries are listed from metadata, so they can be browsed before the package is open.
+     */
+    private void showEntries(PackageMetadata metadata, SubstringIndex<PackageMetadata.Export> index) {
+        PackageMetadata.Export selected = getSelectedItem(entrySelector);
+        entryMetadata = metadata;
+        entryIndex = index;
+        packageSelector.setTooltip(new Tooltip(metadata.getExports().length + " exports\n" + metadata.getClassHistogram()
+                .entrySet()
+                .stream()
+                .map(e -> e.getKey() + ": " + e.getValue())
+                .collect(Collectors.joining("\n"))));
+
+        refreshing = true;
+        try {
+            entrySelector.getItems().setAll(index.find(entryFilter.getText()));
+        } finally {
+            refreshing = false;
+        }
+        if (selected != null && selected.getIndex() < metadata.getExports().length &&
+                metadata.getExports()[selected.getIndex()].getName().equalsIgnoreCase(selected.getName()))
+            entrySelector.getSelectionModel().select(metadata.getExports()[selected.getIndex()]);
+        else
+            entrySelector.getSelectionModel().clearSelection();
+        selectPendingEntry();
+    }
+
+    private UnrealPackage.ExportEntry toEntry(PackageMetadata.Export export) {
+        UnrealPackage up = getUnrealPackage();
+        if (export == null || up == null || export.getIndex() >= up.getExportTable().size())
+            return null;
+        return up.getExportTable().get(export.getIndex());
+    }
+
+    private List<UnrealPackage.ExportEntry> toEntries(List<PackageMetadata.Export> exports) {
+        return exports.stream()
+                .map(this::toEntry)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    private List<File> getFolders() {
+        return getPackages().keySet()
+                .stream()
+                .sorted((f1, f2) -> f1.getName().compareToIgnoreCase(f2.getName()))
+                .collect(Collectors.toList());
+    }
+
+    private void refreshFolders() {
+        File folder = getSelectedItem(folderSelector);
+        File file = getSelectedItem(packageSelector);
+        List<File> files = folder == null ? null : getPackages().get(folder);
+
+        refreshing = true;
+        try {
+            List<File> folders = getFolders();
+            if (!folders.equals(folderSelector.getItems())) {
+                folderSelector.getItems().setAll(folders);
+                if (folder != null && folders.contains(folder))
+                    folderSelector.getSelectionModel().select(folder);
+            }
+
+            if (files != null && !files.equals(packageSelector.getItems())) {
+                packageSelector.getItems().setAll(files);
+                AutoCompleteComboBox.autoCompleteComboBox(packageSelector, AutoCompleteComboBox.AutoCompleteMode.CONTAINING);
+                if (file != null && files.contains(file))
+                    packageSelector.getSelectionModel().select(file);
+            }
+        } finally {
+            refreshing = false;
+        }
+
+        if (folder != null && files == null) {
+            folderSelector.getSelectionModel().clearSelection();
+        } else if (file != null && (files == null || !files.contains(file))) {
+            packageSelector.getSelectionModel().clearSelection();
+        }
+    }
+
+    @Override
+    protected void packagesChanged(Set<File> files) {
+        File file = getSelectedItem(packageSelector);
+        if (file == null || !files.contains(file) || !file.exists() || file.lastModified() == loadedModified)
+            return;
+
+        log.info(() -> file + " changed, reloading");
+        if (getEntry() != null)
+            pendingEntry = getEntry().getObjectFullName();
+        int selected = packageSelector.getSelectionModel().getSelectedIndex();
+        packageSelector.getSelectionModel().clearSelection();
+        packageSelector.getSelectionModel().select(selected);
+    }
+
+    private void select(File file, String entryName) {
+        if (entryIndex != null && file.equals(getSelectedItem(packageSelector))) {
+            selectEntry(entryName);
+            return;
+        }
+
+        pendingEntry = entryName;
+        folderSelector.getSelectionModel().select(file.getParentFile());
+        packageSelector.getSelectionModel().select(file);
+    }
+
+    private void selectPendingEntry() {
+        if (pendingEntry != null && entryIndex != null) {
+            selectEntry(pendingEntry);
+            pendingEntry = null;
+        }
+    }
+
+    private void selectEntry(String entryName) {
+        if (entryIndex == null)
+            return;
+
+        entryIndex.getItems()
+                .stream()
+                .filter(e -> e.getName().equalsIgnoreCase(entryName))
+                .findAny()
+                .ifPresent(e -> {
+                    if (!entrySelector.getItems().contains(e))
+                        entryFilter.clear();
+                    entrySelector.getSelectionModel().select(e);
+                });
+    }
+
     public void addName() {
         if (!isPackageSelected())
             return;
@@ -310,19 +787,7 @@ public class Controller extends ControllerBase implements Initializable {
         dialog.setHeaderText(null);
         dialog.setContentText("Name string:");
         dialog.showAndWait()
-                .ifPresent(name -> execute(() -> {
-                            try (UnrealPackage up = new UnrealPackage(getUnrealPackage().getFile().openNewSession(false))) {
-                                up.addNameEntries(name);
-                                Platform.runLater(() -> setUnrealPackage(up));
-
-                                getEnvironment().markInvalid(up.getPackageName());
-                            }
-                        }, e -> {
-                            log.log(Level.SEVERE, e, () -> "Couldn't add name entry");
-
-                            showException("Couldn't add name entry", e);
-                        }
-                ));
+                .ifPresent(name -> edit(session -> session.addNames(name), "Couldn't add name entry"));
     }
 
     public void addImport() {
@@ -359,18 +824,7 @@ public class Controller extends ControllerBase implements Initializable {
         });
 
         dialog.showAndWait()
-                .ifPresent(nameClass -> execute(() -> {
-                    try (UnrealPackage up = new UnrealPackage(getUnrealPackage().getFile().openNewSession(false))) {
-                        up.addImportEntries(Collections.singletonMap(nameClass.getKey(), nameClass.getValue()));
-                        Platform.runLater(() -> setUnrealPackage(up));
-
-                        getEnvironment().markInvalid(up.getPackageName());
-                    }
-                }, e -> {
-                    log.log(Level.SEVERE, e, () -> "Couldn't add import entry");
-
-                    showException("Couldn't add import entry", e);
-                }));
+                .ifPresent(nameClass -> edit(session -> session.addImport(nameClass.getKey(), nameClass.getValue()), "Couldn't add import entry"));
     }
 
     public void addExport() {
@@ -411,75 +865,46 @@ public class Controller extends ControllerBase implements Initializable {
         });
 
         dialog.showAndWait()
-                .ifPresent(nameClass -> execute(() -> {
-                    try (UnrealPackage up = new UnrealPackage(getUnrealPackage().getFile().openNewSession(false))) {
-                        String objName = nameClass[1];
-                        int flags = UnrealPackage.DEFAULT_OBJECT_FLAGS;
-                        String objClass = nameClass[2];
-                        switch (nameClass[0]) {
-                            case "Class": {
-                                Util.createClass(getSerializerFactory(), up, objName, objClass, flags, Collections.emptyList());
-                                break;
-                            }
-                            case "Object":
-                            default: {
-                                Util.createObject(getSerializerFactory(), up, objName, objClass, flags, hasStack.isSelected(), Collections.emptyList());
-                                break;
-                            }
+                .ifPresent(nameClass -> edit(session -> {
+                    String objName = nameClass[1];
+                    int flags = UnrealPackage.DEFAULT_OBJECT_FLAGS;
+                    String objClass = nameClass[2];
+                    switch (nameClass[0]) {
+                        case "Class": {
+                            session.addClass(objName, objClass, flags, Collections.emptyList());
+                            break;
+                        }
+                        case "Object":
+                        default: {
+                            session.addObject(objName, objClass, flags, hasStack.isSelected(), Collections.emptyList());
+                            break;
                         }
-                        Platform.runLater(() -> setUnrealPackage(up));
-
-                        getEnvironment().markInvalid(up.getPackageName());
                     }
-                }, e -> {
-                    log.log(Level.SEVERE, e, () -> "Couldn't add export entry");
-
-                    showException("Couldn't add export entry", e);
-                }));
+                }, "Couldn't add export entry"));
     }
 
     public void save() {
         if (!isEntrySelected())
             return;
 
-        UnrealPackage.ExportEntry selected = getSelectedItem(entrySelector);
+        UnrealPackage.ExportEntry selected = getEntry();
 
         if (selected == null)
             return;
 
-        execute(() -> {
-            try (UnrealPackage up = new UnrealPackage(getUnrealPackage().getFile().openNewSession(false))) {
-                UnrealPackage.ExportEntry entry = up.getExportTable().get(selected.getIndex());
-                Object object = getSerializerFactory().getOrCreateObject(entry);
-                if (!SAVE_DEFAULTS)
-                    PropertiesUtil.removeDefaults(object.properties, entry.getObjectClass() == null ? entry.getObjectSuperClass().getObjectFullName() : entry.getFullClassName(), getSerializerFactory(), selected.getUnrealPackage());
-                UnrealRuntimeContext context = new UnrealRuntimeContext(entry, getSerializerFactory());
-                {
-                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    ObjectOutput<UnrealRuntimeContext> objectOutput = new ObjectOutputStream<>(baos, up.getFile().getCharset(), getSerializerFactory(), context);
-                    objectOutput.write(object);
-                    if (object instanceof Class)
-                        PropertiesUtil.writeProperties(objectOutput, object.properties);
-                    if (object.unreadBytes != null && object.unreadBytes.length > 0)
-                        objectOutput.writeBytes(object.unreadBytes);
-                    entry.setObjectRawData(baos.toByteArray());
-                }
-                if (object instanceof Texture) {
-                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    ObjectOutput<UnrealRuntimeContext> objectOutput = new ObjectOutputStream<>(baos, up.getFile().getCharset(), entry.getOffset(), getSerializerFactory(), context);
-                    objectOutput.write(object);
-                    if (object.unreadBytes != null && object.unreadBytes.length > 0)
-                        objectOutput.writeBytes(object.unreadBytes);
-                    entry.setObjectRawData(baos.toByteArray());
-                }
-                setUnrealPackage(up);
-                entrySelector.getSelectionModel().select(entry);
-            }
-        }, e -> {
-            log.log(Level.SEVERE, e, () -> "Couldn't save entry");
+        Object object = getObject();
+        UnrealSerializerFactory objectFactory = getObjectFactory();
+        if (object == null)
+            return;
 
-            showException("Couldn't save entry", e);
-        });
+        //until the package is written the edited instance is the one to show and save again
+        if (getObjectCache() != null)
+            getObjectCache().pin(selected, new ObjectCache.Loaded(object, objectFactory));
+        edit(session -> session.edit(up -> {
+            if (!SAVE_DEFAULTS)
+                PropertiesUtil.removeDefaults(object.properties, selected.getObjectClass() == null ? selected.getObjectSuperClass().getObjectFullName() : selected.getFullClassName(), objectFactory, selected.getUnrealPackage());
+            Util.saveObject(objectFactory, up.getExportTable().get(selected.getIndex()), object);
+        }), "Couldn't save entry");
     }
 
     private static boolean canCopy(Object object) {
@@ -492,12 +917,13 @@ public class Controller extends ControllerBase implements Initializable {
         if (!isEntrySelected())
             return;
 
-        UnrealPackage.ExportEntry selected = getSelectedItem(entrySelector);
+        UnrealPackage.ExportEntry selected = getEntry();
 
         if (selected == null)
             return;
 
         Object object = getObject();
+        UnrealSerializerFactory objectFactory = getObjectFactory();
         if (!canCopy(object))
             return;
 
@@ -505,69 +931,187 @@ public class Controller extends ControllerBase implements Initializable {
         dialog.setTitle("Copy export entry");
         dialog.setHeaderText(null);
         dialog.setContentText("New name:");
-        dialog.showAndWait().ifPresent(name -> execute(() -> {
-            try (UnrealPackage up = new UnrealPackage(getUnrealPackage().getFile().openNewSession(false))) {
-                if (object.getClass() == Object.class) {
-                    up.addExportEntry(name,
-                            Optional.ofNullable(selected.getObjectClass()).map(UnrealPackage.Entry::getObjectFullName).orElse(null),
-                            Optional.ofNullable(selected.getObjectSuperClass()).map(UnrealPackage.Entry::getObjectFullName).orElse(null),
-                            selected.getObjectRawDataExternally(),
-                            selected.getObjectFlags());
-
-                } else if (object instanceof Class) {
-                    List<L2Property> properties = new ArrayList<>(object.properties);
-                    PropertiesUtil.removeDefaults(properties, selected.getObjectSuperClass().getObjectFullName(), getSerializerFactory(), selected.getUnrealPackage());
-                    Util.createClass(getSerializerFactory(), up, name, selected.getObjectSuperClass().getObjectFullName(), selected.getObjectFlags(), properties);
-                }
+        dialog.showAndWait().ifPresent(name -> edit(session -> {
+            if (object.getClass() == Object.class) {
+                session.addExport(name,
+                        Optional.ofNullable(selected.getObjectClass()).map(UnrealPackage.Entry::getObjectFullName).orElse(null),
+                        Optional.ofNullable(selected.getObjectSuperClass()).map(UnrealPackage.Entry::getObjectFullName).orElse(null),
+                        selected.getObjectRawDataExternally(),
+                        selected.getObjectFlags());
+            } else if (object instanceof Class) {
+                List<L2Property> properties = new ArrayList<>(object.properties);
+                PropertiesUtil.removeDefaults(properties, selected.getObjectSuperClass().getObjectFullName(), objectFactory, selected.getUnrealPackage());
+                session.edit(up -> Util.createClass(objectFactory, up, name, selected.getObjectSuperClass().getObjectFullName(), selected.getObjectFlags(), properties));
+            }
+        }, "Couldn't copy entry"));
+    }
+
+    private void edit(Consumer<EditSession> edit, String error) {
+        edit(getSelectedItem(packageSelector), edit, error);
+    }
+
+    private void edit(File file, Consumer<EditSession> edit, String error) {
+        if (queueEdits.isSelected()) {
+            edit.accept(editSessions.computeIfAbsent(file, f -> new EditSession(getSerializerFactory(), f)));
+            updateEditSessions();
+            return;
+        }
+
+        EditSession session = new EditSession(getSerializerFactory(), file);
+        edit.accept(session);
+        commit(session, error);
+    }
+
+    private void commit(EditSession session, String error) {
+        execute(null, TaskScheduler.Priority.UI, TaskScheduler.Access.WRITE, session.getFile(), () -> {
+            try {
+                UnrealPackage up = session.commit();
+                long modified = session.getFile().lastModified();
+                PackageMetadata metadata = getMetadataCache().get(session.getFile());
+                SubstringIndex<PackageMetadata.Export> index = indexEntries(metadata);
+                Platform.runLater(() -> {
+                    markInvalid(session.getFile());
+                    if (session.getFile().equals(getSelectedItem(packageSelector))) {
+                        loadedModified = modified;
+                        pendingEntry = getEntry() != null ? getEntry().getObjectFullName() : null;
+                        setUnrealPackage(null);
+                        showEntries(metadata, index);
+                        setUnrealPackage(up);
+                    }
+                });
+            } catch (Throwable t) {
+                markInvalid(session.getFile());
+                throw t;
+            }
+        }, e -> {
+            log.log(Level.SEVERE, e, () -> error);
+
+            showException(error, e);
+        });
+    }
 
-                getEnvironment().markInvalid(up.getPackageName());
+    public void bulkEdit() {
+        if (!isPackageSelected())
+            return;
+
+        File file = getSelectedItem(packageSelector);
+
+        Dialog<BulkEdit> dialog = new Dialog<>();
+        dialog.setTitle("Bulk edit");
+        dialog.setHeaderText(null);
+
+        GridPane grid = new GridPane();
+        grid.setHgap(10);
+        grid.setVgap(10);
+        grid.setPadding(new Insets(20, 10, 10, 10));
+
+        TextField clazz = new TextField();
+        clazz.setPromptText("Engine.StaticMeshActor");
+        if (getEntry() != null && getEntry().getObjectClass() != null)
+            clazz.setText(getEntry().getObjectClass().getObjectFullName());
+        TextArea assignments = new TextArea();
+        assignments.setPromptText("DrawScale=2.0\nLocation.Z=0.0");
+        assignments.setPrefRowCount(8);
+
+        grid.add(new Label("Class:"), 0, 0);
+        grid.add(clazz, 1, 0);
+        grid.add(new Label("Set:"), 0, 1);
+        grid.add(assignments, 1, 1);
+
+        dialog.getDialogPane().setContent(grid);
+        dialog.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
+        dialog.setResultConverter(dialogButton -> {
+            if (dialogButton == ButtonType.OK) {
+                try {
+                    return new BulkEdit(getSerializerFactoryPool(), clazz.getText().trim(), BulkEdit.parseAssignments(Arrays.asList(assignments.getText().split("\\r?\\n"))), SAVE_DEFAULTS);
+                } catch (IllegalArgumentException e) {
+                    showException(e.getMessage(), e);
+                }
             }
+            return null;
+        });
+
+        dialog.showAndWait().ifPresent(bulkEdit -> execute(null, TaskScheduler.Priority.UI, TaskScheduler.Access.READ, file, () -> {
+            BulkEdit.Result result = bulkEdit.prepare(file);
+            result.getFailures().forEach(failure -> log.warning(() -> failure));
 
             Platform.runLater(() -> {
-                int selectedPackage = packageSelector.getSelectionModel().getSelectedIndex();
-                packageSelector.getSelectionModel().clearSelection();
-                packageSelector.getSelectionModel().select(selectedPackage);
+                if (!result.getChanges().isEmpty())
+                    edit(file, session -> result.getChanges().forEach(change -> session.save(change.getExportIndex(), change.getObject(), change.getObjectFactory())), "Couldn't save bulk edit");
+
+                Alert alert = new Alert(result.getFailures().isEmpty() ? Alert.AlertType.INFORMATION : Alert.AlertType.WARNING);
+                alert.setTitle("Bulk edit");
+                alert.setHeaderText(null);
+                alert.setContentText(result.getChanges().size() + " export(s) changed" + (result.getFailures().isEmpty() ? "" :
+                        ", " + result.getFailures().size() + " failed:\n" + result.getFailures().stream().limit(20).collect(Collectors.joining("\n"))));
+                alert.show();
             });
         }, e -> {
-            log.log(Level.SEVERE, e, () -> "Couldn't copy entry");
+            log.log(Level.SEVERE, e, () -> "Couldn't bulk edit " + file);
 
-            showException("Couldn't copy entry", e);
+            showException("Couldn't bulk edit " + file, e);
         }));
     }
 
+    public void commitEdits() {
+        for (EditSession session : editSessions.values())
+            if (!session.isEmpty())
+                commit(session, "Couldn't commit edits: " + session.getFile().getName());
+        editSessions.clear();
+        updateEditSessions();
+    }
+
+    public void discardEdits() {
+        if (getObjectCache() != null)
+            editSessions.keySet().forEach(file -> getObjectCache().invalidate(Util.getPackageName(file)));
+        editSessions.clear();
+        updateEditSessions();
+    }
+
+    private void updateEditSessions() {
+        int count = editSessions.values().stream().mapToInt(EditSession::size).sum();
+        commitEdits.setText(count == 0 ? "Commit edits" : "Commit edits (" + count + ")");
+        commitEdits.setDisable(count == 0);
+        discardEdits.setDisable(count == 0);
+    }
+
     public void exportProperties() {
         if (!isEntrySelected())
             return;
 
-        if (getObject() == null)
+        Object object = getObject();
+        if (object == null)
             return;
 
+        UnrealSerializerFactory objectFactory = getObjectFactory();
+        String initialFileName = getEntry().getObjectInnerFullName();
         execute(() -> {
-            CharSequence text = Decompiler.decompileProperties(getObject(), getSerializerFactory(), 0);
-            if (text.length() != 0) {
-                Platform.runLater(() -> {
-                    FileChooser fileChooser = new FileChooser();
-                    fileChooser.setTitle("Save properties");
-                    fileChooser.getExtensionFilters().addAll(
-                            new FileChooser.ExtensionFilter("Text files", "*.txt"),
-                            new FileChooser.ExtensionFilter("All files", "*.*"));
-                    fileChooser.setInitialFileName(getEntry().getObjectInnerFullName());
-
-                    File selected = fileChooser.showSaveDialog(application.getStage());
-                    if (selected == null)
-                        return;
-
-                    execute(() -> {
-                        try (Writer writer = new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(selected)), "UTF-8")) {
-                            writer.write(text.toString());
-                        }
-                    }, e -> {
-                        log.log(Level.SEVERE, e, () -> "Couldn't save properties text");
+            CharSequence text = Decompiler.decompileProperties(object, objectFactory, 0);
+            if (text.length() == 0)
+                return;
 
-                        showException("Couldn't save properties text", e);
-                    });
+            Platform.runLater(() -> {
+                FileChooser fileChooser = new FileChooser();
+                fileChooser.setTitle("Save properties");
+                fileChooser.getExtensionFilters().addAll(
+                        new FileChooser.ExtensionFilter("Text files", "*.txt"),
+                        new FileChooser.ExtensionFilter("All files", "*.*"));
+                fileChooser.setInitialFileName(initialFileName);
+
+                File selected = fileChooser.showSaveDialog(application.getStage());
+                if (selected == null)
+                    return;
+
+                execute(() -> {
+                    try (Writer writer = new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(selected)), "UTF-8")) {
+                        writer.append(text);
+                    }
+                }, e -> {
+                    log.log(Level.SEVERE, e, () -> "Couldn't save properties text");
+
+                    showException("Couldn't save properties text", e);
                 });
-            }
+            });
         }, e -> {
             log.log(Level.SEVERE, e, () -> "Couldn't generate properties text");
 
@@ -575,6 +1119,113 @@ public class Controller extends ControllerBase implements Initializable {
         });
     }
 
+    public void exportAllProperties() {
+        if (!isPackageSelected())
+            return;
+
+        exportAllProperties(Collections.singletonList(getSelectedItem(packageSelector)), null);
+    }
+
+    public void exportFolderProperties() {
+        File folder = getSelectedItem(folderSelector);
+        if (folder == null)
+            return;
+
+        exportAllProperties(getPackages().getOrDefault(folder, Collections.emptyList()), folder);
+    }
+
+    /**
+     * @param folder folder exported as a whole, its output of packages that are gone is deleted, null if none
+     */
+    private void exportAllProperties(List<File> packages, File folder) {
+        DirectoryChooser directoryChooser = new DirectoryChooser();
+        directoryChooser.setTitle("Export properties to");
+        File outDir = directoryChooser.showDialog(application.getStage());
+        if (outDir == null)
+            return;
+
+        File root = getEnvironment().getStartDir().getAbsoluteFile().getParentFile();
+        EnvironmentDecompiler decompiler = new EnvironmentDecompiler(getSerializerFactoryPool(), root, outDir);
+        execute("exportProperties", TaskScheduler.Priority.UI, TaskScheduler.Access.CONCURRENT, null, () -> {
+            List<String> failures = decompiler.decompile(packages, this::readLock, folder);
+            failures.forEach(failure -> log.warning(() -> "Export: " + failure));
+
+            Platform.runLater(() -> {
+                Alert alert = new Alert(failures.isEmpty() ? Alert.AlertType.INFORMATION : Alert.AlertType.WARNING);
+                alert.setTitle("Export properties");
+                alert.setHeaderText(null);
+                alert.setContentText(String.format("%d file(s) written, %d unchanged, %d deleted, %d failure(s)",
+                        decompiler.getWritten(), decompiler.getUnchanged(), decompiler.getDeleted(), failures.size()));
+                alert.show();
+            });
+        }, e -> {
+            log.log(Level.SEVERE, e, () -> "Couldn't export properties");
+
+            showException("Couldn't export properties", e);
+        });
+    }
+
+    public void importProperties() {
+        if (!isEntrySelected())
+            return;
+
+        UnrealPackage.ExportEntry selected = getEntry();
+        File file = getSelectedItem(packageSelector);
+
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Import properties");
+        fileChooser.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter("Text files", "*.txt"),
+                new FileChooser.ExtensionFilter("All files", "*.*"));
+
+        File text = fileChooser.showOpenDialog(application.getStage());
+        if (text == null)
+            return;
+
+        UnrealSerializerFactory objectFactory = getSerializerFactory();
+        execute(() -> {
+            List<Object> objects;
+            try (Reader reader = new InputStreamReader(new BufferedInputStream(new FileInputStream(text)), "UTF-8")) {
+                objects = new PropertiesImporter(objectFactory).read(selected, reader);
+            } catch (Exception e) {
+                markInvalid(file);
+                throw e;
+            }
+
+            Platform.runLater(() -> edit(file, session -> objects.forEach(object -> session.save(object.entry.getIndex(), object, objectFactory)), "Couldn't import properties"));
+        }, e -> {
+            log.log(Level.SEVERE, e, () -> "Couldn't import properties");
+
+            showException("Couldn't import properties", e);
+        });
+    }
+
+    public void metrics() {
+        Dialog dialog = new Dialog();
+        dialog.initStyle(StageStyle.UTILITY);
+        dialog.setTitle("Metrics");
+        dialog.setResizable(true);
+
+        TextArea report = new TextArea(Metrics.report());
+        report.setEditable(false);
+        report.setStyle("-fx-font-family: monospace");
+        report.setPrefColumnCount(110);
+        report.setPrefRowCount(12);
+
+        ButtonType reset = new ButtonType("Reset");
+        DialogPane pane = new DialogPane();
+        pane.setContent(report);
+        pane.getButtonTypes().addAll(reset, ButtonType.OK);
+        ((Button) pane.lookupButton(reset)).addEventFilter(javafx.event.ActionEvent.ACTION, event -> {
+            Metrics.reset();
+            report.setText(Metrics.report());
+            event.consume();
+        });
+        dialog.setDialogPane(pane);
+
+        dialog.showAndWait();
+    }
+
     public void about() {
         Dialog dialog = new Dialog();
         dialog.initStyle(StageStyle.UTILITY);
@@ -25,6 +25,7 @@ import acmi.l2.clientmod.io.UnrealPackage;
 import acmi.l2.clientmod.unreal.Environment;
 import acmi.l2.clientmod.unreal.UnrealSerializerFactory;
 import acmi.l2.clientmod.unreal.core.Object;
+import javafx.application.Platform;
 import javafx.beans.binding.Bindings;
 import javafx.beans.binding.BooleanBinding;
 import javafx.beans.property.*;
@@ -32,28 +33,66 @@ import javafx.collections.FXCollections;
 import javafx.collections.ObservableMap;
 
 import java.io.File;
-import java.util.List;
-import java.util.Objects;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
 import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
 public class ControllerBase {
+    private static final Logger log = Logger.getLogger(ControllerBase.class.getName());
+
+    private static final boolean WATCH = System.getProperty("L2pe.watch", "true").equalsIgnoreCase("true");
+    private static final int PREFETCH_COUNT = Integer.getInteger("L2pe.prefetch", 16);
+    private static final long PREFETCH_BUDGET = Long.getLong("L2pe.prefetchMB", 32) << 20;
+
+    private ObjectProperty<File> ini = new SimpleObjectProperty<>(this, "ini");
     private ObjectProperty<Environment> environment = new SimpleObjectProperty<>(this, "environment");
     private ObjectProperty<UnrealSerializerFactory> serializerFactory = new SimpleObjectProperty<>(this, "serializerFactory");
+    private ObjectProperty<SerializerFactoryPool> serializerFactoryPool = new SimpleObjectProperty<>(this, "serializerFactoryPool");
+    private ObjectProperty<ObjectCache> objectCache = new SimpleObjectProperty<>(this, "objectCache");
+    private ObjectProperty<UnrealSerializerFactory> objectCacheFactory = new SimpleObjectProperty<>(this, "objectCacheFactory");
     private MapProperty<File, List<File>> packages = new SimpleMapProperty<>(this, "packages");
     private ObjectProperty<UnrealPackage> unrealPackage = new SimpleObjectProperty<>(this, "unrealPackage");
     private ObjectProperty<UnrealPackage.ExportEntry> entry = new SimpleObjectProperty<>(this, "entry");
     private ObjectProperty<Object> object = new SimpleObjectProperty<>(this, "object");
+    private UnrealSerializerFactory objectFactory;
+    private ObjectProperty<ExportIndex> exportIndex = new SimpleObjectProperty<>(this, "exportIndex");
+    private ObjectProperty<ReferenceIndex> referenceIndex = new SimpleObjectProperty<>(this, "referenceIndex");
 
     private BooleanBinding environmentSelected = Bindings.createBooleanBinding(() -> Objects.nonNull(getEnvironment()), environmentProperty());
     private BooleanBinding packageSelected = Bindings.createBooleanBinding(() -> Objects.nonNull(getUnrealPackage()), unrealPackageProperty());
     private BooleanBinding entrySelected = Bindings.createBooleanBinding(() -> Objects.nonNull(getEntry()), entryProperty());
 
-    private ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "L2pe Executor") {{
-        setDaemon(true);
-    }});
+    private final TaskScheduler scheduler = new TaskScheduler(Math.max(2, Runtime.getRuntime().availableProcessors()));
+    private volatile ExportIndex latestExportIndex;
+    private final java.lang.Object exportIndexLock = new java.lang.Object();
+    private Environment exportIndexEnvironment;
+    private final Set<String> invalidPackages = ConcurrentHashMap.newKeySet();
+    private final Set<File> newPackages = ConcurrentHashMap.newKeySet();
+    private PackageWatcher packageWatcher;
+    private final MetadataCache metadataCache = new MetadataCache(new File(L2PE.getDataDir(), "metadata"));
+    private final java.lang.Object referenceIndexLock = new java.lang.Object();
+    private Environment referenceIndexEnvironment;
+    private volatile ReferenceIndex latestReferenceIndex;
+    private boolean referenceIndexRequested;
+    private final Set<File> invalidReferences = ConcurrentHashMap.newKeySet();
+    private final File referenceCacheDir = new File(L2PE.getDataDir(), "references");
+
+    public File getIni() {
+        return ini.get();
+    }
+
+    public ObjectProperty<File> iniProperty() {
+        return ini;
+    }
+
+    public void setIni(File ini) {
+        this.ini.set(ini);
+    }
 
     public Environment getEnvironment() {
         return environment.get();
@@ -75,6 +114,22 @@ public class ControllerBase {
         return serializerFactory;
     }
 
+    public SerializerFactoryPool getSerializerFactoryPool() {
+        return serializerFactoryPool.get();
+    }
+
+    public ReadOnlyObjectProperty<SerializerFactoryPool> serializerFactoryPoolProperty() {
+        return serializerFactoryPool;
+    }
+
+    public ObjectCache getObjectCache() {
+        return objectCache.get();
+    }
+
+    public ReadOnlyObjectProperty<ObjectCache> objectCacheProperty() {
+        return objectCache;
+    }
+
     public ObservableMap<File, List<File>> getPackages() {
         return packages.get();
     }
@@ -119,8 +174,36 @@ public class ControllerBase {
         return object;
     }
 
-    protected void setObject(Object object) {
-        this.object.set(object);
+    /**
+     * Factory that loaded {@link #getObject()}, saves of the object have to go through it.
+     */
+    public UnrealSerializerFactory getObjectFactory() {
+        return objectFactory;
+    }
+
+    protected void setObject(ObjectCache.Loaded loaded) {
+        this.objectFactory = loaded == null ? null : loaded.getObjectFactory();
+        this.object.set(loaded == null ? null : loaded.getObject());
+    }
+
+    public MetadataCache getMetadataCache() {
+        return metadataCache;
+    }
+
+    public ExportIndex getExportIndex() {
+        return exportIndex.get();
+    }
+
+    public ReadOnlyObjectProperty<ExportIndex> exportIndexProperty() {
+        return exportIndex;
+    }
+
+    public ReferenceIndex getReferenceIndex() {
+        return referenceIndex.get();
+    }
+
+    public ReadOnlyObjectProperty<ReferenceIndex> referenceIndexProperty() {
+        return referenceIndex;
     }
 
     public BooleanBinding environmentSelected() {
@@ -151,22 +234,343 @@ public class ControllerBase {
         environmentProperty().addListener(observable -> {
             setPackages(FXCollections.observableMap(getEnvironment().listFiles()
                     .collect(Collectors.groupingBy(File::getParentFile))));
+
+            buildExportIndex();
+            resetReferenceIndex();
+            watchPackages();
         });
 
-        serializerFactory.bind(Bindings.createObjectBinding(() -> getEnvironment() != null ? new UnrealSerializerFactory(getEnvironment()) : null, environmentProperty()));
+        serializerFactoryPool.bind(Bindings.createObjectBinding(() -> getIni() != null ? new SerializerFactoryPool(getIni()) : null, iniProperty()));
+        objectCache.bind(Bindings.createObjectBinding(() -> {
+            Environment environment = getEnvironment();
+            return environment != null ? new ObjectCache(() -> new UnrealSerializerFactory(environment)) : null;
+        }, environmentProperty()));
+        //the cache replaces its factory to release objects it evicted, everything else follows it
+        serializerFactory.bind(Bindings.createObjectBinding(() -> getObjectCache() != null ? getObjectCache().getObjectFactory() : null, objectCache, objectCacheFactory));
+        objectCache.addListener((observable, oldValue, newValue) -> {
+            Metrics.setObjectCache(newValue);
+            if (newValue != null)
+                newValue.setFactoryListener(factory -> Platform.runLater(() -> {
+                    if (getObjectCache() == newValue)
+                        objectCacheFactory.set(factory);
+                }));
+        });
     }
 
-    protected void execute(Task task, Consumer<Exception> exceptionHandler) {
-        executor.execute(() -> {
+    /**
+     * Drops everything cached for the package. The environment and the package map belong to the FX thread,
+     * so a call from a background task is posted to it.
+     */
+    protected void markInvalid(File file) {
+        if (!Platform.isFxApplicationThread()) {
+            Platform.runLater(() -> markInvalid(file));
+            return;
+        }
+
+        String packageName = Util.getPackageName(file);
+        getEnvironment().markInvalid(packageName);
+        DefaultProperties.invalidate(getSerializerFactory(), packageName);
+        metadataCache.invalidate(packageName);
+        if (getObjectCache() != null)
+            getObjectCache().invalidate(packageName);
+        updateExportIndex(packageName);
+        updateReferenceIndex(file);
+    }
+
+    private void watchPackages() {
+        if (packageWatcher != null) {
             try {
-                task.run();
-            } catch (Exception e) {
-                exceptionHandler.accept(e);
+                packageWatcher.close();
+            } catch (IOException e) {
+                log.log(Level.WARNING, e, () -> "Couldn't stop watching packages");
             }
+            packageWatcher = null;
+        }
+
+        if (!WATCH)
+            return;
+
+        Environment environment = getEnvironment();
+        try {
+            packageWatcher = new PackageWatcher(new ArrayList<>(getPackages().keySet()), changes -> {
+                Map<File, List<File>> listing = environment.listFiles()
+                        .filter(file -> changes.getFolders().contains(file.getParentFile()))
+                        .collect(Collectors.groupingBy(File::getParentFile));
+                Platform.runLater(() -> {
+                    if (getEnvironment() == environment)
+                        packagesChanged(changes, listing);
+                });
+            });
+        } catch (IOException e) {
+            log.log(Level.WARNING, e, () -> "Couldn't watch packages");
+        }
+    }
+
+    private void packagesChanged(PackageWatcher.Changes changes, Map<File, List<File>> listing) {
+        Set<File> changed = new HashSet<>();
+        for (File folder : changes.getFolders()) {
+            List<File> oldFiles = getPackages().getOrDefault(folder, Collections.emptyList());
+            List<File> newFiles = listing.getOrDefault(folder, Collections.emptyList());
+
+            for (File file : newFiles) {
+                if (!oldFiles.contains(file)) {
+                    newPackages.add(file);
+                    changed.add(file);
+                } else if (changes.getOverflow().contains(folder) || changes.getFiles().contains(file)) {
+                    changed.add(file);
+                }
+            }
+            for (File file : oldFiles)
+                if (!newFiles.contains(file))
+                    changed.add(file);
+
+            if (newFiles.isEmpty())
+                getPackages().remove(folder);
+            else if (!newFiles.equals(oldFiles))
+                getPackages().put(folder, newFiles);
+        }
+
+        if (changed.isEmpty())
+            return;
+
+        log.fine(() -> "Packages changed: " + changed);
+        for (File file : changed)
+            markInvalid(file);
+        packagesChanged(changed);
+    }
+
+    /**
+     * Called on the FX thread after packages were created, modified or deleted outside of the editor.
+     */
+    protected void packagesChanged(Set<File> files) {
+    }
+
+    private void buildExportIndex() {
+        Environment environment = getEnvironment();
+        exportIndex.set(null);
+        synchronized (exportIndexLock) {
+            exportIndexEnvironment = environment;
+            latestExportIndex = null;
+        }
+        invalidPackages.clear();
+        newPackages.clear();
+
+        List<File> files = getPackages().values()
+                .stream()
+                .flatMap(List::stream)
+                .collect(Collectors.toList());
+        executeBackground("exportIndex", () -> {
+            long time = System.currentTimeMillis();
+            ExportIndex index = ExportIndex.build(files, metadataCache);
+            log.fine(() -> String.format("Export index: %d entries, %dms", index.size(), System.currentTimeMillis() - time));
+
+            TaskScheduler.checkCancelled();
+            synchronized (invalidPackages) {
+                publishExportIndex(environment, updateExportIndex(index));
+            }
+        }, e -> log.log(Level.WARNING, e, () -> "Couldn't build export index"));
+    }
+
+    private void updateExportIndex(String packageName) {
+        invalidPackages.add(packageName);
+
+        Environment environment = getEnvironment();
+        executeBackground(null, () -> {
+            synchronized (invalidPackages) {
+                ExportIndex index = latestExportIndex;
+                if (index != null)
+                    publishExportIndex(environment, updateExportIndex(index));
+            }
+        }, e -> log.log(Level.WARNING, e, () -> "Couldn't update export index"));
+    }
+
+    private ExportIndex updateExportIndex(ExportIndex index) {
+        for (Iterator<File> it = newPackages.iterator(); it.hasNext(); ) {
+            File file = it.next();
+            it.remove();
+
+            index = index.withPackage(file, metadataCache);
+        }
+
+        for (Iterator<String> it = invalidPackages.iterator(); it.hasNext(); ) {
+            String packageName = it.next();
+            it.remove();
+
+            Optional<File> file = index.findFile(packageName);
+            if (file.isPresent())
+                index = index.withPackage(file.get(), metadataCache);
+        }
+        return index;
+    }
+
+    /**
+     * An index built for a previous environment is dropped.
+     */
+    private void publishExportIndex(Environment environment, ExportIndex index) {
+        synchronized (exportIndexLock) {
+            if (exportIndexEnvironment != environment)
+                return;
+            latestExportIndex = index;
+        }
+        Platform.runLater(() -> {
+            if (getEnvironment() == environment)
+                exportIndex.set(index);
         });
     }
 
-    protected interface Task {
-        void run() throws Exception;
+    /**
+     * Builds the reference index on first use, it deserializes every export, so it is not built with the export index.
+     * Packages are read with their own factories, the UI factory and object cache are left alone.
+     */
+    public void requestReferenceIndex() {
+        if (referenceIndexRequested || getEnvironment() == null)
+            return;
+        referenceIndexRequested = true;
+
+        Environment environment = getEnvironment();
+        File ini = getIni();
+        List<File> files = getPackages().values()
+                .stream()
+                .flatMap(List::stream)
+                .collect(Collectors.toList());
+        executeBackground("referenceIndex", () -> {
+            long time = System.currentTimeMillis();
+            ReferenceIndex index = ReferenceIndex.build(files, new SerializerFactoryPool(ini), referenceCacheDir);
+            log.fine(() -> String.format("Reference index: %d references, %dms", index.size(), System.currentTimeMillis() - time));
+
+            TaskScheduler.checkCancelled();
+            synchronized (invalidReferences) {
+                publishReferenceIndex(environment, updateReferenceIndex(index, ini));
+            }
+        }, e -> log.log(Level.WARNING, e, () -> "Couldn't build reference index"));
+    }
+
+    private void resetReferenceIndex() {
+        cancel("referenceIndex");
+        referenceIndex.set(null);
+        synchronized (referenceIndexLock) {
+            referenceIndexEnvironment = getEnvironment();
+            latestReferenceIndex = null;
+        }
+        referenceIndexRequested = false;
+        invalidReferences.clear();
+    }
+
+    private void updateReferenceIndex(File file) {
+        if (!referenceIndexRequested)
+            return;
+
+        ReferenceIndex current = latestReferenceIndex;
+        if (current != null)
+            current.findFile(Util.getPackageName(file)).ifPresent(invalidReferences::add);
+        invalidReferences.add(file);
+
+        Environment environment = getEnvironment();
+        File ini = getIni();
+        executeBackground(null, () -> {
+            synchronized (invalidReferences) {
+                ReferenceIndex index = latestReferenceIndex;
+                if (index != null)
+                    publishReferenceIndex(environment, updateReferenceIndex(index, ini));
+            }
+        }, e -> log.log(Level.WARNING, e, () -> "Couldn't update reference index"));
+    }
+
+    private ReferenceIndex updateReferenceIndex(ReferenceIndex index, File ini) {
+        if (invalidReferences.isEmpty())
+            return index;
+
+        SerializerFactoryPool factories = new SerializerFactoryPool(ini);
+        for (Iterator<File> it = invalidReferences.iterator(); it.hasNext(); ) {
+            File file = it.next();
+            it.remove();
+
+            index = index.withPackage(file, factories, referenceCacheDir);
+        }
+        return index;
+    }
+
+    /**
+     * An index built for a previous environment is dropped.
+     */
+    private void publishReferenceIndex(Environment environment, ReferenceIndex index) {
+        synchronized (referenceIndexLock) {
+            if (referenceIndexEnvironment != environment)
+                return;
+            latestReferenceIndex = index;
+        }
+        Platform.runLater(() -> {
+            if (getEnvironment() == environment)
+                referenceIndex.set(index);
+        });
+    }
+
+    /**
+     * Loads entries into the object cache one per task at background priority, so user tasks are not held up.
+     * Stops when the prefetch budget or the cache is exhausted, or a new prefetch is started.
+     */
+    protected void prefetch(Collection<UnrealPackage.ExportEntry> entries) {
+        cancel("prefetch");
+
+        ObjectCache cache = getObjectCache();
+        if (PREFETCH_COUNT <= 0 || cache == null || entries.isEmpty())
+            return;
+
+        Deque<UnrealPackage.ExportEntry> queue = entries.stream()
+                .limit(PREFETCH_COUNT)
+                .collect(Collectors.toCollection(ArrayDeque::new));
+        prefetch(cache, queue, PREFETCH_BUDGET);
+    }
+
+    private void prefetch(ObjectCache cache, Deque<UnrealPackage.ExportEntry> queue, long budget) {
+        execute("prefetch", TaskScheduler.Priority.BACKGROUND, TaskScheduler.Access.SERIAL, null, () -> {
+            UnrealPackage.ExportEntry entry = queue.poll();
+            while (entry != null && cache.contains(entry))
+                entry = queue.poll();
+            if (entry == null)
+                return;
+
+            long size = Math.max(entry.getSize(), 0);
+            if (size <= budget) {
+                if (!cache.prefetch(entry))
+                    return;
+
+                if (entry.getObjectClass() != null || entry.getObjectSuperClass() != null) {
+                    String className = entry.getObjectClass() == null ? entry.getObjectSuperClass().getObjectFullName() : entry.getFullClassName();
+                    synchronized (cache.getObjectFactory()) {
+                        DefaultProperties.warm(cache.getObjectFactory(), className);
+                    }
+                }
+            }
+
+            TaskScheduler.checkCancelled();
+            prefetch(cache, queue, size <= budget ? budget - size : budget);
+        }, e -> log.log(Level.FINE, e, () -> "Prefetch failed"));
+    }
+
+    protected void execute(Task task, Consumer<Exception> exceptionHandler) {
+        execute(null, TaskScheduler.Priority.UI, TaskScheduler.Access.SERIAL, null, task, exceptionHandler);
+    }
+
+    protected void execute(String key, TaskScheduler.Priority priority, TaskScheduler.Access access, File file, Task task, Consumer<Exception> exceptionHandler) {
+        scheduler.execute(key, priority, access, file, task, exceptionHandler);
+    }
+
+    protected void executeBackground(String key, Task task, Consumer<Exception> exceptionHandler) {
+        execute(key, TaskScheduler.Priority.BACKGROUND, TaskScheduler.Access.CONCURRENT, null, task, exceptionHandler);
+    }
+
+    protected void cancel(String key) {
+        scheduler.cancel(key);
+    }
+
+    /**
+     * Read lock of a package for {@link TaskScheduler.Access#CONCURRENT} tasks reading many packages.
+     */
+    protected Lock readLock(File file) {
+        return scheduler.readLock(file);
+    }
+
+    protected interface Task extends TaskScheduler.Task {
     }
 }
@@ -28,35 +28,97 @@ import acmi.l2.clientmod.unreal.core.Enum;
 import acmi.l2.clientmod.unreal.core.Object;
 import acmi.l2.clientmod.unreal.properties.L2Property;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
-import static acmi.l2.clientmod.unreal.properties.PropertiesUtil.removeDefaults;
+import static acmi.l2.clientmod.l2pe.DefaultProperties.removeDefaults;
 
 @SuppressWarnings("unchecked")
 public class Decompiler {
+    private static final int EXPORT_OBJECT = Property.CPF.ExportObject.getMask();
+    private static final int NEED_EXPORT = EXPORT_OBJECT | Property.CPF.EditInlineNotify.getMask();
+
+    private static final int CACHED_INDENTS = 16;
+    private static final String[] TABS = new String[CACHED_INDENTS];
+    private static final String[] NEW_LINES = new String[CACHED_INDENTS];
+
+    static {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < CACHED_INDENTS; i++) {
+            TABS[i] = sb.toString();
+            NEW_LINES[i] = "\r\n" + TABS[i];
+            sb.append('\t');
+        }
+    }
+
+    private static final ThreadLocal<char[]> FLOAT_BUFFER = ThreadLocal.withInitial(() -> new char[32]);
+
     static Object instantiate(UnrealPackage.ExportEntry entry, UnrealSerializerFactory objectFactory) {
-        return objectFactory.getOrCreateObject(entry);
+        return Util.loadObject(objectFactory, entry);
     }
 
     public static CharSequence decompileProperties(Object object, UnrealSerializerFactory objectFactory, int indent) {
-        Stream.Builder<CharSequence> properties = Stream.builder();
+        StringBuilder sb = new StringBuilder();
+        try {
+            decompileProperties(object, objectFactory, indent, sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return sb;
+    }
+
+    public static void decompileProperties(Object object, UnrealSerializerFactory objectFactory, int indent, Appendable out) throws IOException {
+        UnrealPackage.ExportEntry entry = object.entry;
+        java.lang.Object event = Events.decompile();
+        long start = System.nanoTime();
+        decompile(object, objectFactory, indent, out);
+        Metrics.DECOMPILE.record(start, entry.getSize());
+        Events.decompiled(event, entry);
+    }
 
+    private static void decompile(Object object, UnrealSerializerFactory objectFactory, int indent, Appendable out) throws IOException {
         UnrealPackage.ExportEntry e = object.entry;
         UnrealPackage up = e.getUnrealPackage();
 
         List<L2Property> props = new ArrayList<>(object.properties);
         removeDefaults(props, e.getObjectClass() == null ? e.getObjectSuperClass().getObjectFullName() : e.getFullClassName(), objectFactory, up);
 
-        props.forEach(property -> {
-            StringBuilder sb = new StringBuilder();
-
+        boolean first = true;
+        for (L2Property property : props) {
             Property template = property.getTemplate();
 
+            //exported sub objects go before the property that references them
+            for (int i = 0; i < template.arrayDimension; i++) {
+                java.lang.Object obj = property.getAt(i);
+
+                if (template instanceof ObjectProperty) {
+                    UnrealPackage.Entry entry = up.objectReference((Integer) obj);
+                    if (needExport(entry, template)) {
+                        first = separate(out, first, indent);
+                        toT3d(instantiate((UnrealPackage.ExportEntry) entry, objectFactory), objectFactory, indent, out);
+                    }
+                } else if (template instanceof ArrayProperty) {
+                    Property innerProperty = ((ArrayProperty) template).inner;
+                    if (!(innerProperty instanceof ObjectProperty))
+                        continue;
+
+                    for (java.lang.Object innerObj : (List<java.lang.Object>) obj) {
+                        UnrealPackage.Entry entry = up.objectReference((Integer) innerObj);
+                        if (needExport(entry, innerProperty)) {
+                            first = separate(out, first, indent);
+                            toT3d(instantiate((UnrealPackage.ExportEntry) entry, objectFactory), objectFactory, indent, out);
+                        }
+                    }
+                }
+            }
+
+            first = separate(out, first, indent);
+
             for (int i = 0; i < template.arrayDimension; i++) {
                 java.lang.Object obj = property.getAt(i);
 
@@ -73,49 +135,46 @@ public class Decompiler {
                 }
 
                 if (i > 0)
-                    sb.append(newLine(indent));
+                    out.append(newLine(indent));
 
                 if (template instanceof ByteProperty) {
-                    sb.append(property.getName());
+                    out.append(property.getName());
                     if (template.arrayDimension > 1) {
-                        sb.append("(").append(i).append(")");
+                        appendIndex(out, i);
                     }
-                    sb.append("=");
+                    out.append("=");
                     if (((ByteProperty) template).enumType != null) {
                         Enum en = ((ByteProperty) template).enumType;
-                        sb.append(en.values[(Integer) obj]);
+                        out.append(String.valueOf(en.values[(Integer) obj]));
                     } else {
-                        sb.append(obj);
+                        out.append(String.valueOf(obj));
                     }
                 } else if (template instanceof IntProperty ||
                         template instanceof BoolProperty) {
-                    sb.append(property.getName());
+                    out.append(property.getName());
                     if (template.arrayDimension > 1) {
-                        sb.append("(").append(i).append(")");
+                        appendIndex(out, i);
                     }
-                    sb.append("=");
-                    sb.append(obj);
+                    out.append("=");
+                    out.append(String.valueOf(obj));
                 } else if (template instanceof FloatProperty) {
-                    sb.append(property.getName());
+                    out.append(property.getName());
                     if (template.arrayDimension > 1) {
-                        sb.append("(").append(i).append(")");
+                        appendIndex(out, i);
                     }
-                    sb.append("=");
-                    sb.append(String.format(Locale.US, "%f", (Float) obj));
+                    out.append("=");
+                    appendFloat(out, (Float) obj);
                 } else if (template instanceof ObjectProperty) {
                     UnrealPackage.Entry entry = up.objectReference((Integer) obj);
-                    if (needExport(entry, template)) {
-                        properties.add(toT3d(instantiate((UnrealPackage.ExportEntry) entry, objectFactory), objectFactory, indent));
-                    }
-                    sb.append(property.getName());
+                    out.append(property.getName());
                     if (template.arrayDimension > 1) {
-                        sb.append("(").append(i).append(")");
+                        appendIndex(out, i);
                     }
-                    sb.append("=");
+                    out.append("=");
                     if (entry == null) {
-                        sb.append("None");
+                        out.append("None");
                     } else if (entry instanceof UnrealPackage.ImportEntry) {
-                        sb.append(((UnrealPackage.ImportEntry) entry).getClassName().getName())
+                        out.append(((UnrealPackage.ImportEntry) entry).getClassName().getName())
                                 .append("'")
                                 .append(entry.getObjectFullName())
                                 .append("'");
@@ -123,7 +182,7 @@ public class Decompiler {
                         String clazz = "Class";
                         if (((UnrealPackage.ExportEntry) entry).getObjectClass() != null)
                             clazz = ((UnrealPackage.ExportEntry) entry).getObjectClass().getObjectName().getName();
-                        sb.append(clazz)
+                        out.append(clazz)
                                 .append("'")
                                 .append(entry.getObjectInnerFullName())
                                 .append("'");
@@ -131,12 +190,12 @@ public class Decompiler {
                         throw new IllegalStateException("wtf");
                     }
                 } else if (template instanceof NameProperty) {
-                    sb.append(property.getName());
+                    out.append(property.getName());
                     if (template.arrayDimension > 1) {
-                        sb.append("(").append(i).append(")");
+                        appendIndex(out, i);
                     }
-                    sb.append("=");
-                    sb.append("'").append(up.nameReference((Integer) obj)).append("'");
+                    out.append("=");
+                    out.append("'").append(up.nameReference((Integer) obj)).append("'");
                 } else if (template instanceof ArrayProperty) {
                     ArrayProperty arrayProperty = (ArrayProperty) property.getTemplate();
                     Property innerProperty = arrayProperty.inner;
@@ -144,59 +203,61 @@ public class Decompiler {
                     List<java.lang.Object> list = (List<java.lang.Object>) obj;
 
                     for (int j = 0; j < list.size(); j++) {
-                        java.lang.Object innerObj = list.get(j);
-
-                        if (innerProperty instanceof ObjectProperty) {
-                            UnrealPackage.Entry entry = up.objectReference((Integer) innerObj);
-                            if (needExport(entry, innerProperty)) {
-                                properties.add(toT3d(instantiate((UnrealPackage.ExportEntry) entry, objectFactory), objectFactory, indent));
-                            }
-                        }
-
-                        fakeProperty.putAt(0, innerObj);
+                        fakeProperty.putAt(0, list.get(j));
                         if (j > 0)
-                            sb.append(newLine(indent));
-                        sb.append(property.getName()).append("(").append(j).append(")")
-                                .append("=")
-                                .append(inlineProperty(fakeProperty, up, objectFactory, true));
+                            out.append(newLine(indent));
+                        out.append(property.getName());
+                        appendIndex(out, j);
+                        out.append("=");
+                        inlineProperty(fakeProperty, up, objectFactory, true, out);
                     }
                 } else if (template instanceof StructProperty) {
-                    sb.append(property.getName());
+                    out.append(property.getName());
                     if (template.arrayDimension > 1) {
-                        sb.append("(").append(i).append(")");
+                        appendIndex(out, i);
                     }
-                    sb.append("=");
-                    sb.append(inlineStruct((List<L2Property>) obj, up, objectFactory));
+                    out.append("=");
+                    inlineStruct((List<L2Property>) obj, up, objectFactory, out);
                 } else if (template instanceof StrProperty) {
-                    sb.append(property.getName());
+                    out.append(property.getName());
                     if (template.arrayDimension > 1) {
-                        sb.append("(").append(i).append(")");
+                        appendIndex(out, i);
                     }
-                    sb.append("=");
-                    sb.append("\"").append(Objects.toString(obj)).append("\"");
+                    out.append("=");
+                    out.append("\"").append(Objects.toString(obj)).append("\"");
                 }
             }
+        }
+    }
 
-            properties.add(sb);
-        });
-
-        return properties.build().collect(Collectors.joining(newLine(indent)));
+    private static boolean separate(Appendable out, boolean first, int indent) throws IOException {
+        if (!first)
+            out.append(newLine(indent));
+        return false;
     }
 
     public static CharSequence inlineProperty(L2Property property, UnrealPackage up, UnrealSerializerFactory objectFactory, boolean valueOnly) {
         StringBuilder sb = new StringBuilder();
+        try {
+            inlineProperty(property, up, objectFactory, valueOnly, sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return sb;
+    }
 
+    public static void inlineProperty(L2Property property, UnrealPackage up, UnrealSerializerFactory objectFactory, boolean valueOnly, Appendable out) throws IOException {
         Property template = property.getTemplate();
 
         for (int i = 0; i < template.arrayDimension; i++) {
             if (!valueOnly) {
-                sb.append(property.getName());
+                out.append(property.getName());
 
                 if (template.arrayDimension > 1) {
-                    sb.append("(").append(i).append(")");
+                    appendIndex(out, i);
                 }
 
-                sb.append("=");
+                out.append("=");
             }
 
             java.lang.Object object = property.getAt(i);
@@ -204,32 +265,32 @@ public class Decompiler {
             if (template instanceof ByteProperty) {
                 if (((ByteProperty) template).enumType != null) {
                     Enum en = ((ByteProperty) template).enumType;
-                    sb.append(en.values[(Integer) object]);
+                    out.append(String.valueOf(en.values[(Integer) object]));
                 } else {
-                    sb.append(object);
+                    out.append(String.valueOf(object));
                 }
             } else if (template instanceof IntProperty ||
                     template instanceof BoolProperty) {
-                sb.append(object);
+                out.append(String.valueOf(object));
             } else if (template instanceof FloatProperty) {
-                sb.append(String.format(Locale.US, "%f", (Float) object));
+                appendFloat(out, (Float) object);
             } else if (template instanceof ObjectProperty) {
                 UnrealPackage.Entry entry = up.objectReference((Integer) object);
                 if (entry == null) {
-                    sb.append("None");
+                    out.append("None");
                 } else if (entry instanceof UnrealPackage.ImportEntry) {
-                    sb.append(((UnrealPackage.ImportEntry) entry).getClassName().getName())
+                    out.append(((UnrealPackage.ImportEntry) entry).getClassName().getName())
                             .append("'")
                             .append(entry.getObjectFullName())
                             .append("'");
                 } else if (entry instanceof UnrealPackage.ExportEntry) {
-                    if (Property.CPF.getFlags(template.propertyFlags).contains(Property.CPF.ExportObject)) {
-                        sb.append("\"").append(entry.getObjectName().getName()).append("\"");
+                    if ((template.propertyFlags & EXPORT_OBJECT) != 0) {
+                        out.append("\"").append(entry.getObjectName().getName()).append("\"");
                     } else {
                         String clazz = "Class";
                         if (((UnrealPackage.ExportEntry) entry).getObjectClass() != null)
                             clazz = ((UnrealPackage.ExportEntry) entry).getObjectClass().getObjectName().getName();
-                        sb.append(clazz)
+                        out.append(clazz)
                                 .append("'")
                                 .append(entry.getObjectName().getName())
                                 .append("'");
@@ -238,60 +299,86 @@ public class Decompiler {
                     throw new IllegalStateException("wtf");
                 }
             } else if (template instanceof NameProperty) {
-                sb.append("'").append(Objects.toString(object)).append("'");
+                out.append("'").append(Objects.toString(object)).append("'");
             } else if (template instanceof ArrayProperty) {
                 ArrayProperty arrayProperty = (ArrayProperty) property.getTemplate();
                 Property innerProperty = arrayProperty.inner;
                 L2Property fakeProperty = new L2Property(innerProperty);
                 List<java.lang.Object> list = (List<java.lang.Object>) object;
 
-                sb.append(list.stream()
-                        .map(o -> {
-                            fakeProperty.putAt(0, o);
-                            return inlineProperty(fakeProperty, up, objectFactory, true);
-                        }).collect(Collectors.joining(",", "(", ")")));
+                out.append("(");
+                for (int j = 0; j < list.size(); j++) {
+                    if (j > 0)
+                        out.append(",");
+                    fakeProperty.putAt(0, list.get(j));
+                    inlineProperty(fakeProperty, up, objectFactory, true, out);
+                }
+                out.append(")");
             } else if (template instanceof StructProperty) {
                 if (object == null) {
-                    sb.append("None");
+                    out.append("None");
                 } else {
-                    sb.append(inlineStruct((List<L2Property>) object, up, objectFactory));
+                    inlineStruct((List<L2Property>) object, up, objectFactory, out);
                 }
             } else if (template instanceof StrProperty) {
-                sb.append("\"").append(Objects.toString(object)).append("\"");
+                out.append("\"").append(Objects.toString(object)).append("\"");
             }
 
             if (i != template.arrayDimension - 1)
-                sb.append(",");
+                out.append(",");
         }
+    }
 
+    public static CharSequence inlineStruct(List<L2Property> struct, UnrealPackage up, UnrealSerializerFactory objectFactory) {
+        StringBuilder sb = new StringBuilder();
+        try {
+            inlineStruct(struct, up, objectFactory, sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
         return sb;
     }
 
-    public static CharSequence inlineStruct(List<L2Property> struct, UnrealPackage up, UnrealSerializerFactory objectFactory) {
-        return struct.stream().map(p -> inlineProperty(p, up, objectFactory, false)).collect(Collectors.joining(",", "(", ")"));
+    public static void inlineStruct(List<L2Property> struct, UnrealPackage up, UnrealSerializerFactory objectFactory, Appendable out) throws IOException {
+        out.append("(");
+        for (int i = 0; i < struct.size(); i++) {
+            if (i > 0)
+                out.append(",");
+            inlineProperty(struct.get(i), up, objectFactory, false, out);
+        }
+        out.append(")");
     }
 
     public static boolean needExport(UnrealPackage.Entry entry, Property template) {
         return entry != null &&
                 entry instanceof UnrealPackage.ExportEntry &&
-                (Property.CPF.getFlags(template.propertyFlags).contains(Property.CPF.ExportObject) ||
-                        Property.CPF.getFlags(template.propertyFlags).contains(Property.CPF.EditInlineNotify)); //FIXME
+                (template.propertyFlags & NEED_EXPORT) != 0; //FIXME
 
     }
 
     public static CharSequence toT3d(Object object, UnrealSerializerFactory objectFactory, int indent) {
         StringBuilder sb = new StringBuilder();
-
-        sb.append("Begin Object");
-        sb.append(" Class=").append(object.entry.getObjectClass().getObjectName().getName());
-        sb.append(" Name=").append(object.entry.getObjectName().getName());
-        sb.append(newLine(indent + 1)).append(decompileProperties(object, objectFactory, indent + 1));
-        sb.append(newLine(indent)).append("End Object");
-
+        try {
+            toT3d(object, objectFactory, indent, sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
         return sb;
     }
 
+    public static void toT3d(Object object, UnrealSerializerFactory objectFactory, int indent, Appendable out) throws IOException {
+        out.append("Begin Object");
+        out.append(" Class=").append(object.entry.getObjectClass().getObjectName().getName());
+        out.append(" Name=").append(object.entry.getObjectName().getName());
+        out.append(newLine(indent + 1));
+        decompile(object, objectFactory, indent + 1, out);
+        out.append(newLine(indent)).append("End Object");
+    }
+
     public static CharSequence tab(int indent) {
+        if (indent < CACHED_INDENTS)
+            return TABS[indent];
+
         StringBuilder sb = new StringBuilder(indent);
         for (int i = 0; i < indent; i++)
             sb.append('\t');
@@ -299,8 +386,95 @@ public class Decompiler {
     }
 
     public static CharSequence newLine(int indent) {
+        if (indent < CACHED_INDENTS)
+            return NEW_LINES[indent];
+
         StringBuilder sb = new StringBuilder("\r\n");
         sb.append(tab(indent));
         return sb;
     }
-}
\ No newline at end of file
+
+    private static void appendIndex(Appendable out, int i) throws IOException {
+        out.append('(');
+        if (i < 10)
+            out.append((char) ('0' + i));
+        else
+            out.append(String.valueOf(i));
+        out.append(')');
+    }
+
+    static void appendFloat(Appendable out, float value) throws IOException {
+        char[] buf = FLOAT_BUFFER.get();
+        int len = formatFloat(value, buf);
+        if (len < 0) {
+            out.append(String.format(Locale.US, "%f", value));
+        } else if (out instanceof StringBuilder) {
+            ((StringBuilder) out).append(buf, 0, len);
+        } else if (out instanceof Writer) {
+            ((Writer) out).write(buf, 0, len);
+        } else {
+            for (int i = 0; i < len; i++)
+                out.append(buf[i]);
+        }
+    }
+
+    public static String formatFloat(float value) {
+        char[] buf = new char[32];
+        int len = formatFloat(value, buf);
+        return len < 0 ? String.format(Locale.US, "%f", value) : new String(buf, 0, len);
+    }
+
+    /**
+     * Same digits as {@code String.format(Locale.US, "%f", value)}: exact binary value
+     * rounded half up to 6 fraction digits.
+     *
+     * @return length written to buf, -1 if value is NaN, infinite or too large
+     */
+    static int formatFloat(float value, char[] buf) {
+        if (Float.isNaN(value) || Float.isInfinite(value) || Math.abs(value) >= 1e12f)
+            return -1;
+
+        int bits = Float.floatToRawIntBits(value);
+        int exponent = (bits >>> 23) & 0xff;
+        long mantissa = bits & 0x7fffff;
+        if (exponent == 0)
+            exponent = 1;
+        else
+            mantissa |= 0x800000;
+        //value = mantissa * 2^-shift
+        int shift = 150 - exponent;
+
+        long scaled;
+        if (shift <= 0) {
+            scaled = (mantissa << -shift) * 1_000_000L;
+        } else if (shift < 45) {
+            long n = mantissa * 1_000_000L;
+            scaled = n >>> shift;
+            if ((n & (1L << (shift - 1))) != 0)
+                scaled++;
+        } else {
+            scaled = 0;
+        }
+
+        int pos = 0;
+        if (bits < 0)
+            buf[pos++] = '-';
+
+        long integer = scaled / 1_000_000L;
+        int fraction = (int) (scaled % 1_000_000L);
+        int len = 1;
+        for (long v = integer; v >= 10; v /= 10)
+            len++;
+        for (int i = pos + len - 1; i >= pos; i--) {
+            buf[i] = (char) ('0' + integer % 10);
+            integer /= 10;
+        }
+        pos += len;
+        buf[pos++] = '.';
+        for (int i = pos + 5; i >= pos; i--) {
+            buf[i] = (char) ('0' + fraction % 10);
+            fraction /= 10;
+        }
+        return pos + 6;
+    }
+}
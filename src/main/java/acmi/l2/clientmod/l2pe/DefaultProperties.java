@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.l2pe;
+
+import acmi.l2.clientmod.io.UnrealPackage;
+import acmi.l2.clientmod.unreal.UnrealSerializerFactory;
+import acmi.l2.clientmod.unreal.core.*;
+import acmi.l2.clientmod.unreal.core.Object;
+import acmi.l2.clientmod.unreal.properties.L2Property;
+import acmi.l2.clientmod.unreal.properties.PropertiesUtil;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import static acmi.l2.clientmod.unreal.UnrealSerializerFactory.IS_STRUCT;
+
+/**
+ * Resolved class defaults, cached per serializer factory and keyed by class full name.
+ * Only used to leave defaults out of decompiled text, saves go through {@link PropertiesUtil#removeDefaults}.
+ * Values are normalized to full names so they can be compared across packages,
+ * anything that doesn't compare cleanly is kept.
+ * Classes local to the package being edited may not be saved yet and go through {@link PropertiesUtil#removeDefaults}.
+ * {@code -DL2pe.defaultsCache=verify} runs both comparisons, keeps the library's result and logs where they differ.
+ */
+@SuppressWarnings("unchecked")
+public class DefaultProperties {
+    private static final Logger log = Logger.getLogger(DefaultProperties.class.getName());
+
+    private static final String MODE = System.getProperty("L2pe.defaultsCache", "true").toLowerCase();
+    private static final boolean ENABLED = !MODE.equals("false");
+    private static final boolean VERIFY = MODE.equals("verify");
+
+    /**
+     * Values must not reference their factory, or the weak keys are never cleared.
+     */
+    private static final Map<UnrealSerializerFactory, DefaultProperties> instances = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final Map<String, Defaults> cache = new ConcurrentHashMap<>();
+    private long generation;
+
+    private DefaultProperties() {
+    }
+
+    private static DefaultProperties of(UnrealSerializerFactory objectFactory) {
+        return instances.computeIfAbsent(objectFactory, f -> new DefaultProperties());
+    }
+
+    public static void removeDefaults(List<L2Property> properties, String className, UnrealSerializerFactory objectFactory, UnrealPackage up) {
+        long start = System.nanoTime();
+        if (!ENABLED || isLocal(className, up)) {
+            PropertiesUtil.removeDefaults(properties, className, objectFactory, up);
+        } else if (VERIFY) {
+            List<L2Property> expected = new ArrayList<>(properties);
+            PropertiesUtil.removeDefaults(expected, className, objectFactory, up);
+            List<String> differences = compare(properties, expected, className, objectFactory, up);
+            if (!differences.isEmpty())
+                log.warning(() -> String.format("%s defaults differ from PropertiesUtil: %s", className, differences));
+            Set<L2Property> kept = Collections.newSetFromMap(new IdentityHashMap<>());
+            kept.addAll(expected);
+            properties.retainAll(kept);
+        } else {
+            of(objectFactory).remove(objectFactory, properties, className, up);
+        }
+        Metrics.REMOVE_DEFAULTS.record(start);
+    }
+
+    /**
+     * Compares the cached comparison against {@link PropertiesUtil#removeDefaults}, properties are not modified.
+     *
+     * @return names of properties only one of them removes
+     */
+    public static List<String> compare(List<L2Property> properties, String className, UnrealSerializerFactory objectFactory, UnrealPackage up) {
+        List<L2Property> expected = new ArrayList<>(properties);
+        PropertiesUtil.removeDefaults(expected, className, objectFactory, up);
+        return compare(properties, expected, className, objectFactory, up);
+    }
+
+    private static List<String> compare(List<L2Property> properties, List<L2Property> expected, String className, UnrealSerializerFactory objectFactory, UnrealPackage up) {
+        List<L2Property> actual = new ArrayList<>(properties);
+        of(objectFactory).remove(objectFactory, actual, className, up);
+
+        Set<L2Property> kept = Collections.newSetFromMap(new IdentityHashMap<>());
+        kept.addAll(expected);
+        Set<L2Property> keptByCache = Collections.newSetFromMap(new IdentityHashMap<>());
+        keptByCache.addAll(actual);
+
+        List<String> differences = new ArrayList<>();
+        for (L2Property property : properties)
+            if (kept.contains(property) != keptByCache.contains(property))
+                differences.add(property.getName() + (kept.contains(property) ? " (removed by cache)" : " (kept by cache)"));
+        return differences;
+    }
+
+    public static void invalidate(UnrealSerializerFactory objectFactory, String packageName) {
+        if (objectFactory != null)
+            of(objectFactory).invalidate(packageName);
+    }
+
+    /**
+     * Resolves and caches defaults of the class chain ahead of use.
+     */
+    public static void warm(UnrealSerializerFactory objectFactory, String className) {
+        if (ENABLED)
+            of(objectFactory).get(objectFactory, className);
+    }
+
+    private static boolean isLocal(String className, UnrealPackage up) {
+        String packageName = up.getPackageName();
+        return className.length() > packageName.length() &&
+                className.charAt(packageName.length()) == '.' &&
+                className.regionMatches(true, 0, packageName, 0, packageName.length());
+    }
+
+    private void remove(UnrealSerializerFactory objectFactory, List<L2Property> properties, String className, UnrealPackage up) {
+        Defaults defaults = get(objectFactory, className);
+        properties.removeIf(property -> isDefault(property, defaults, up));
+    }
+
+    private synchronized void invalidate(String packageName) {
+        String name = packageName.toLowerCase();
+        generation++;
+        cache.values().removeIf(defaults -> defaults.packages.contains(name));
+    }
+
+    /**
+     * Defaults loaded while a package was invalidated are used once but not cached.
+     */
+    private Defaults get(UnrealSerializerFactory objectFactory, String className) {
+        String key = className.toLowerCase();
+        Defaults defaults = cache.get(key);
+        if (defaults == null) {
+            long loadGeneration;
+            synchronized (this) {
+                loadGeneration = generation;
+            }
+            defaults = load(objectFactory, className);
+            synchronized (this) {
+                if (loadGeneration == generation)
+                    cache.putIfAbsent(key, defaults);
+            }
+        }
+        return defaults;
+    }
+
+    private static Defaults load(UnrealSerializerFactory objectFactory, String className) {
+        Map<String, List<java.lang.Object>> values = new HashMap<>();
+        Set<String> packages = new HashSet<>();
+
+        for (String name = className; name != null; ) {
+            Object clazz = objectFactory.getOrCreateObject(name, IS_STRUCT);
+            UnrealPackage.ExportEntry entry = clazz.entry;
+            UnrealPackage up = entry.getUnrealPackage();
+
+            packages.add(up.getPackageName().toLowerCase());
+            for (L2Property property : clazz.properties)
+                values.putIfAbsent(property.getName().toLowerCase(), normalize(property, up));
+
+            name = entry.getObjectSuperClass() == null ? null : entry.getObjectSuperClass().getObjectFullName();
+        }
+
+        return new Defaults(values, packages);
+    }
+
+    private static boolean isDefault(L2Property property, Defaults defaults, UnrealPackage up) {
+        List<java.lang.Object> value = defaults.values.get(property.getName().toLowerCase());
+        if (value == null)
+            return !hasStruct(property.getTemplate()) && isZero(property, up);
+        return value.equals(normalize(property, up));
+    }
+
+    static List<java.lang.Object> normalize(L2Property property, UnrealPackage up) {
+        Property template = property.getTemplate();
+        List<java.lang.Object> values = new ArrayList<>(template.arrayDimension);
+        for (int i = 0; i < template.arrayDimension; i++)
+            values.add(normalize(template, property.getAt(i), up));
+        return values;
+    }
+
+    static java.lang.Object normalize(Property template, java.lang.Object value, UnrealPackage up) {
+        if (template instanceof ObjectProperty) {
+            UnrealPackage.Entry entry = value == null ? null : up.objectReference((Integer) value);
+            return entry == null ? null : entry.getObjectFullName().toLowerCase();
+        } else if (template instanceof NameProperty) {
+            return value == null ? "none" : up.nameReference((Integer) value).toLowerCase();
+        } else if (template instanceof ArrayProperty) {
+            Property inner = ((ArrayProperty) template).inner;
+            List<java.lang.Object> list = new ArrayList<>();
+            if (value != null) {
+                for (java.lang.Object o : (List<java.lang.Object>) value)
+                    list.add(normalize(inner, o, up));
+            }
+            return list;
+        } else if (template instanceof StructProperty) {
+            Map<String, List<java.lang.Object>> map = new HashMap<>();
+            if (value != null) {
+                for (L2Property p : (List<L2Property>) value)
+                    map.put(p.getName().toLowerCase(), normalize(p, up));
+            }
+            return map;
+        } else if (template instanceof FloatProperty) {
+            return value == null ? 0f : value;
+        } else if (template instanceof BoolProperty) {
+            return value == null ? false : value;
+        } else if (template instanceof StrProperty) {
+            return value == null ? "" : value;
+        } else if (template instanceof ByteProperty || template instanceof IntProperty) {
+            return value == null ? 0 : value;
+        }
+        return value;
+    }
+
+    /**
+     * Struct members may have defaults of their own, a zero member isn't necessarily default.
+     */
+    private static boolean hasStruct(Property template) {
+        if (template instanceof ArrayProperty)
+            return hasStruct(((ArrayProperty) template).inner);
+        return template instanceof StructProperty;
+    }
+
+    static boolean isZero(L2Property property, UnrealPackage up) {
+        Property template = property.getTemplate();
+        for (int i = 0; i < template.arrayDimension; i++)
+            if (!isZero(template, property.getAt(i), up))
+                return false;
+        return true;
+    }
+
+    static boolean isZero(Property template, java.lang.Object value, UnrealPackage up) {
+        if (value == null)
+            return true;
+
+        if (template instanceof ObjectProperty) {
+            return up.objectReference((Integer) value) == null;
+        } else if (template instanceof NameProperty) {
+            return up.nameReference((Integer) value).equalsIgnoreCase("None");
+        } else if (template instanceof ArrayProperty) {
+            return ((List) value).isEmpty();
+        } else if (template instanceof StructProperty) {
+            for (L2Property p : (List<L2Property>) value)
+                if (!isZero(p, up))
+                    return false;
+            return true;
+        } else if (template instanceof FloatProperty) {
+            return Float.floatToIntBits((Float) value) == 0;
+        } else if (template instanceof BoolProperty) {
+            return !((Boolean) value);
+        } else if (template instanceof StrProperty) {
+            return value.toString().isEmpty();
+        } else if (template instanceof ByteProperty || template instanceof IntProperty) {
+            return ((Integer) value) == 0;
+        }
+        return false;
+    }
+
+    private static class Defaults {
+        final Map<String, List<java.lang.Object>> values;
+        final Set<String> packages;
+
+        Defaults(Map<String, List<java.lang.Object>> values, Set<String> packages) {
+            this.values = values;
+            this.packages = packages;
+        }
+    }
+}
@@ -0,0 +1,393 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.l2pe;
+
+import acmi.l2.clientmod.io.UnrealPackage;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Finds exports with byte identical raw data across packages.
+ * Per package hashes (MD5 of raw data, 128 bit) are kept in {@code dir} like {@link MetadataCache},
+ * valid while package size and modification time match, so an interrupted scan resumes where it stopped.
+ * Only hashes and sizes are held in memory, names and classes for the report come from {@link MetadataCache}.
+ */
+public class DuplicateScan {
+    private static final Logger log = Logger.getLogger(DuplicateScan.class.getName());
+
+    private static final int MAGIC = 0x4C325048;
+    private static final int VERSION = 1;
+
+    private static final ThreadLocal<MessageDigest> MD5 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final File dir;
+    private final MetadataCache metadataCache;
+
+    public DuplicateScan(File dir, MetadataCache metadataCache) {
+        this.dir = dir;
+        this.metadataCache = metadataCache;
+    }
+
+    /**
+     * @param minSize exports smaller than this are ignored
+     * @return groups sorted by wasted bytes, largest first
+     */
+    public Result scan(List<File> packages, int minSize) throws InterruptedException {
+        List<File> sorted = new ArrayList<>(packages);
+        sorted.sort((f1, f2) -> f1.getPath().compareToIgnoreCase(f2.getPath()));
+
+        List<Callable<Hashes>> tasks = new ArrayList<>(sorted.size());
+        for (File file : sorted)
+            tasks.add(() -> get(file));
+
+        List<Hashes> hashes = new ArrayList<>(sorted.size());
+        List<String> failures = new ArrayList<>();
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            List<Future<Hashes>> futures = pool.invokeAll(tasks);
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    hashes.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    failures.add(sorted.get(i) + ": " + e.getCause());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        return new Result(group(hashes, minSize, failures), failures);
+    }
+
+    public Hashes get(File file) throws IOException {
+        long size = file.length();
+        long lastModified = file.lastModified();
+
+        Hashes hashes = load(file);
+        if (hashes == null || hashes.size != size || hashes.lastModified != lastModified) {
+            hashes = read(file, size, lastModified);
+            store(hashes);
+        }
+        return hashes;
+    }
+
+    private List<Group> group(List<Hashes> packages, int minSize, List<String> failures) {
+        int count = 0;
+        for (Hashes h : packages)
+            count += h.sizes.length;
+
+        // (package, export) pairs packed into longs, keys copied out so sorting never goes through Hashes
+        long[] refs = new long[count];
+        int[] sizes = new int[count];
+        long[] hi = new long[count];
+        long[] lo = new long[count];
+        int n = 0;
+        for (int p = 0; p < packages.size(); p++) {
+            Hashes h = packages.get(p);
+            for (int i = 0; i < h.sizes.length; i++) {
+                if (h.sizes[i] > 0 && h.sizes[i] >= minSize) {
+                    refs[n] = ((long) p << 32) | i;
+                    sizes[n] = h.sizes[i];
+                    hi[n] = h.hi[i];
+                    lo[n] = h.lo[i];
+                    n++;
+                }
+            }
+        }
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++)
+            order[i] = i;
+        sort(order, sizes, hi, lo);
+
+        Set<File> changed = new HashSet<>();
+        List<Group> groups = new ArrayList<>();
+        for (int from = 0; from < n; ) {
+            int first = order[from];
+            int to = from + 1;
+            while (to < n && compare(first, order[to], sizes, hi, lo) == 0)
+                to++;
+            if (to - from > 1) {
+                List<Location> locations = new ArrayList<>(to - from);
+                for (int k = from; k < to; k++) {
+                    long ref = refs[order[k]];
+                    Location location = location(packages.get((int) (ref >>> 32)), (int) ref, changed);
+                    if (location != null)
+                        locations.add(location);
+                }
+                if (locations.size() > 1)
+                    groups.add(new Group(sizes[first], locations));
+            }
+            from = to;
+        }
+        changed.forEach(file -> failures.add(file + ": changed during scan"));
+        groups.sort((g1, g2) -> Long.compare(g2.getWasted(), g1.getWasted()));
+        return groups;
+    }
+
+    /**
+     * Size descending, then hash.
+     */
+    private static int compare(int a, int b, int[] sizes, long[] hi, long[] lo) {
+        int c = Integer.compare(sizes[b], sizes[a]);
+        if (c == 0)
+            c = Long.compare(hi[a], hi[b]);
+        if (c == 0)
+            c = Long.compare(lo[a], lo[b]);
+        return c;
+    }
+
+    /**
+     * Bottom up merge sort of indices into the key arrays.
+     */
+    private static void sort(int[] order, int[] sizes, long[] hi, long[] lo) {
+        int n = order.length;
+        int[] src = order, dst = new int[n];
+        for (int width = 1; width < n; width <<= 1) {
+            for (int from = 0; from < n; from += width << 1) {
+                int mid = Math.min(from + width, n), to = Math.min(from + (width << 1), n);
+                int i = from, j = mid, k = from;
+                while (i < mid && j < to)
+                    dst[k++] = compare(src[j], src[i], sizes, hi, lo) < 0 ? src[j++] : src[i++];
+                while (i < mid)
+                    dst[k++] = src[i++];
+                while (j < to)
+                    dst[k++] = src[j++];
+            }
+            int[] t = src;
+            src = dst;
+            dst = t;
+        }
+        if (src != order)
+            System.arraycopy(src, 0, order, 0, n);
+    }
+
+    /**
+     * @return null if the package changed since it was hashed, its metadata no longer matches the hash indices
+     */
+    private Location location(Hashes hashes, int index, Set<File> changed) {
+        PackageMetadata metadata = metadataCache.get(hashes.file);
+        if (metadata.getSize() != hashes.size || metadata.getLastModified() != hashes.lastModified ||
+                metadata.getExports().length != hashes.sizes.length) {
+            changed.add(hashes.file);
+            return null;
+        }
+        PackageMetadata.Export export = metadata.getExports()[index];
+        return new Location(hashes.file, index, export.getName(), export.getClassName());
+    }
+
+    private static Hashes read(File file, long size, long lastModified) {
+        try (UnrealPackage up = Util.openPackage(file, true)) {
+            List<UnrealPackage.ExportEntry> exports = up.getExportTable();
+            Hashes hashes = new Hashes(file, size, lastModified, exports.size());
+            MessageDigest md5 = MD5.get();
+            for (int i = 0; i < exports.size(); i++) {
+                UnrealPackage.ExportEntry entry = exports.get(i);
+                hashes.sizes[i] = entry.getSize();
+                if (entry.getSize() == 0)
+                    continue;
+
+                byte[] digest = md5.digest(entry.getObjectRawData());
+                hashes.hi[i] = toLong(digest, 0);
+                hashes.lo[i] = toLong(digest, 8);
+            }
+            log.fine(() -> String.format("%s: %d exports hashed", file, exports.size()));
+            return hashes;
+        }
+    }
+
+    private static long toLong(byte[] b, int off) {
+        long v = 0;
+        for (int i = 0; i < 8; i++)
+            v = (v << 8) | (b[off + i] & 0xff);
+        return v;
+    }
+
+    File cacheFile(File file) {
+        return new File(dir, Util.cacheFileName(file) + ".hash");
+    }
+
+    private Hashes load(File file) {
+        File cacheFile = cacheFile(file);
+        if (!cacheFile.isFile())
+            return null;
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION)
+                return null;
+            if (!input.readUTF().equals(file.getAbsolutePath()))
+                return null;
+            long size = input.readLong();
+            long lastModified = input.readLong();
+            Hashes hashes = new Hashes(file, size, lastModified, input.readInt());
+            for (int i = 0; i < hashes.sizes.length; i++) {
+                hashes.sizes[i] = input.readInt();
+                hashes.hi[i] = input.readLong();
+                hashes.lo[i] = input.readLong();
+            }
+            return hashes;
+        } catch (IOException e) {
+            log.log(Level.FINE, e, () -> "Couldn't read " + cacheFile);
+            return null;
+        }
+    }
+
+    private void store(Hashes hashes) {
+        File cacheFile = cacheFile(hashes.file);
+        File tmp = new File(cacheFile.getPath() + ".tmp");
+        dir.mkdirs();
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeUTF(hashes.file.getAbsolutePath());
+            output.writeLong(hashes.size);
+            output.writeLong(hashes.lastModified);
+            output.writeInt(hashes.sizes.length);
+            for (int i = 0; i < hashes.sizes.length; i++) {
+                output.writeInt(hashes.sizes[i]);
+                output.writeLong(hashes.hi[i]);
+                output.writeLong(hashes.lo[i]);
+            }
+        } catch (IOException e) {
+            log.log(Level.WARNING, e, () -> "Couldn't write " + cacheFile);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(cacheFile)) {
+            cacheFile.delete();
+            tmp.renameTo(cacheFile);
+        }
+    }
+
+    public static class Hashes {
+        final File file;
+        final long size;
+        final long lastModified;
+        final int[] sizes;
+        final long[] hi;
+        final long[] lo;
+
+        Hashes(File file, long size, long lastModified, int count) {
+            this.file = file;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.sizes = new int[count];
+            this.hi = new long[count];
+            this.lo = new long[count];
+        }
+    }
+
+    public static class Result {
+        private final List<Group> groups;
+        private final List<String> failures;
+
+        Result(List<Group> groups, List<String> failures) {
+            this.groups = groups;
+            this.failures = failures;
+        }
+
+        public List<Group> getGroups() {
+            return groups;
+        }
+
+        public List<String> getFailures() {
+            return failures;
+        }
+
+        public long getWasted() {
+            return groups.stream().mapToLong(Group::getWasted).sum();
+        }
+    }
+
+    public static class Group {
+        private final int size;
+        private final List<Location> locations;
+
+        Group(int size, List<Location> locations) {
+            this.size = size;
+            this.locations = locations;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public List<Location> getLocations() {
+            return locations;
+        }
+
+        public long getWasted() {
+            return (long) size * (locations.size() - 1);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d x %d bytes (%d wasted) %s", locations.size(), size, getWasted(), locations.get(0).getClassName());
+        }
+    }
+
+    public static class Location {
+        private final File file;
+        private final int exportIndex;
+        private final String name;
+        private final String className;
+
+        Location(File file, int exportIndex, String name, String className) {
+            this.file = file;
+            this.exportIndex = exportIndex;
+            this.name = name;
+            this.className = className;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public int getExportIndex() {
+            return exportIndex;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        @Override
+        public String toString() {
+            return name + " (" + className + ")";
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.l2pe;
+
+import acmi.l2.clientmod.io.UnrealPackage;
+import acmi.l2.clientmod.unreal.UnrealSerializerFactory;
+import acmi.l2.clientmod.unreal.core.Object;
+import acmi.l2.clientmod.unreal.properties.L2Property;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Queues edits of a single package and writes them in one session.
+ * Names and imports are added in one call each before the queued exports and saves.
+ * Edits are applied to a copy in a temporary folder next to the package, which then replaces it in one move,
+ * so if anything fails the package file is left untouched.
+ */
+public class EditSession {
+    private static final Logger log = Logger.getLogger(EditSession.class.getName());
+
+    private final UnrealSerializerFactory serializer;
+    private final File file;
+
+    private final Set<String> names = new LinkedHashSet<>();
+    private final Map<String, String> imports = new LinkedHashMap<>();
+    private final List<Edit> edits = new ArrayList<>();
+
+    public EditSession(UnrealSerializerFactory serializer, File file) {
+        this.serializer = serializer;
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public synchronized int size() {
+        return names.size() + imports.size() + edits.size();
+    }
+
+    public synchronized boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public synchronized EditSession addNames(String... names) {
+        Collections.addAll(this.names, names);
+        return this;
+    }
+
+    public synchronized EditSession addImport(String name, String className) {
+        imports.put(name, className);
+        return this;
+    }
+
+    public EditSession addObject(String name, String className, int flags, boolean hasStack, List<L2Property> properties) {
+        return edit(up -> Util.createObject(serializer, up, name, className, flags, hasStack, properties));
+    }
+
+    public EditSession addClass(String name, String superClass, int flags, List<L2Property> properties) {
+        return edit(up -> Util.createClass(serializer, up, name, superClass, flags, properties));
+    }
+
+    public EditSession addExport(String name, String objectClass, String objectSuperClass, byte[] data, int flags) {
+        return edit(up -> up.addExportEntry(name, objectClass, objectSuperClass, data, flags));
+    }
+
+    public EditSession save(int exportIndex, Object object) {
+        return save(exportIndex, object, serializer);
+    }
+
+    /**
+     * @param objectFactory factory that loaded the object
+     */
+    public EditSession save(int exportIndex, Object object, UnrealSerializerFactory objectFactory) {
+        return edit(up -> Util.saveObject(objectFactory, up.getExportTable().get(exportIndex), object));
+    }
+
+    public synchronized EditSession edit(Edit edit) {
+        edits.add(edit);
+        return this;
+    }
+
+    public synchronized void clear() {
+        names.clear();
+        imports.clear();
+        edits.clear();
+    }
+
+    /**
+     * @return package as it was written, already closed
+     */
+    public synchronized UnrealPackage commit() throws IOException {
+        long start = System.nanoTime();
+        Path path = file.toPath().toAbsolutePath();
+        //same file name, so the package name doesn't change, and same file system, so the move is a rename
+        Path tmpDir = Files.createTempDirectory(path.getParent(), ".l2pe");
+        Path tmp = tmpDir.resolve(path.getFileName());
+        boolean keepTmp = false;
+        try {
+            Files.copy(path, tmp, StandardCopyOption.COPY_ATTRIBUTES);
+            try (UnrealPackage up = Util.openPackage(tmp.toFile(), false)) {
+                apply(up);
+            }
+
+            try {
+                replace(tmp, path);
+            } catch (IOException | RuntimeException e) {
+                keepTmp = Files.exists(tmp);
+                if (keepTmp)
+                    log.severe(() -> "Couldn't replace " + path + ", written package kept in " + tmp);
+                throw e;
+            }
+
+            UnrealPackage result;
+            try (UnrealPackage up = Util.openPackage(file, true)) {
+                result = up;
+            }
+            clear();
+            Metrics.COMMIT.record(start, file.length());
+            return result;
+        } catch (IOException | RuntimeException e) {
+            log.log(Level.WARNING, e, () -> "Couldn't write " + file);
+            throw e;
+        } finally {
+            if (!keepTmp) {
+                Files.deleteIfExists(tmp);
+                Files.deleteIfExists(tmpDir);
+            }
+        }
+    }
+
+    private static void replace(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void apply(UnrealPackage up) throws IOException {
+        String[] newNames = names.stream()
+                .filter(name -> up.nameReference(name) < 0)
+                .toArray(String[]::new);
+        if (newNames.length > 0)
+            up.addNameEntries(newNames);
+
+        if (!imports.isEmpty())
+            up.addImportEntries(imports);
+
+        for (Edit edit : edits)
+            edit.apply(up);
+    }
+
+    public interface Edit {
+        void apply(UnrealPackage up) throws IOException;
+    }
+}
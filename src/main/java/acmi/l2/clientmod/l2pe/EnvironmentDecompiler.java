@@ -0,0 +1,427 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.l2pe;
+
+import acmi.l2.clientmod.io.UnrealPackage;
+import acmi.l2.clientmod.unreal.UnrealSerializerFactory;
+import acmi.l2.clientmod.unreal.core.Object;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * Decompiles packages into {@code <outDir>/<path relative to root>/<Group.Name>.txt}.
+ * Exports are decompiled on a fork join pool and handed to writer threads through a bounded queue,
+ * files with unchanged content are not rewritten.
+ * Files of exports that no longer exist are deleted after the pass, so the output stays a mirror of the packages.
+ */
+public class EnvironmentDecompiler {
+    private static final Logger log = Logger.getLogger(EnvironmentDecompiler.class.getName());
+
+    private static final int SPLIT_THRESHOLD = Integer.getInteger("L2pe.decompileSplit", 256);
+    private static final int QUEUE_SIZE = Integer.getInteger("L2pe.decompileQueue", 256);
+    private static final int WRITERS = Integer.getInteger("L2pe.decompileWriters", 2);
+
+    private static final Output END = new Output(null, null, null);
+
+    private final SerializerFactoryPool factories;
+    private final File root;
+    private final File outDir;
+
+    private final LongAdder written = new LongAdder();
+    private final LongAdder unchanged = new LongAdder();
+    private final LongAdder deleted = new LongAdder();
+
+    public EnvironmentDecompiler(SerializerFactoryPool factories, File root, File outDir) {
+        this.factories = factories;
+        this.root = root;
+        this.outDir = outDir;
+    }
+
+    public List<String> decompile(List<File> packages) {
+        return decompile(packages, file -> null, null);
+    }
+
+    /**
+     * Files of a package that couldn't be opened, or of an export that failed, are kept.
+     *
+     * @param readLocks lock held while a package is read, null if none
+     * @param complete  directory all of whose packages are in the list, output of other packages under it is deleted too;
+     *                  null to only clean up the output of the listed packages
+     * @return failures in package/export order
+     */
+    public List<String> decompile(List<File> packages, Function<File, Lock> readLocks, File complete) {
+        List<File> sorted = new ArrayList<>(packages);
+        sorted.sort((f1, f2) -> f1.getPath().compareToIgnoreCase(f2.getPath()));
+
+        BlockingQueue<Output> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        List<String> writeFailures = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> writers = new ArrayList<>();
+        for (int i = 0; i < Math.max(1, WRITERS); i++) {
+            Thread writer = new Thread(() -> write(queue, writeFailures), "L2pe Writer-" + (i + 1));
+            writer.setDaemon(true);
+            writer.start();
+            writers.add(writer);
+        }
+
+        Set<Path> outputs = ConcurrentHashMap.newKeySet();
+        Set<Path> kept = ConcurrentHashMap.newKeySet();
+        ForkJoinPool pool = new ForkJoinPool();
+        List<String> failures = new ArrayList<>();
+        try {
+            failures.addAll(pool.invoke(new PackagesTask(sorted, readLocks, queue, outputs, kept)));
+        } finally {
+            pool.shutdown();
+            try {
+                for (Thread ignored : writers)
+                    queue.put(END);
+                for (Thread writer : writers)
+                    writer.join();
+            } catch (InterruptedException e) {
+                writers.forEach(Thread::interrupt);
+                Thread.currentThread().interrupt();
+            }
+        }
+        failures.addAll(writeFailures);
+
+        if (!Thread.currentThread().isInterrupted()) {
+            List<File> dirs = new ArrayList<>();
+            if (complete != null)
+                dirs.add(getMirrorDir(complete));
+            else
+                sorted.forEach(file -> dirs.add(getPackageDir(file)));
+            for (File dir : dirs) {
+                try {
+                    deleteStale(dir.toPath(), outputs, kept);
+                } catch (IOException e) {
+                    failures.add(dir + ": " + e);
+                }
+            }
+        }
+        log.fine(() -> String.format("%d file(s) written, %d unchanged, %d deleted", written.sum(), unchanged.sum(), deleted.sum()));
+        return failures;
+    }
+
+    public long getWritten() {
+        return written.sum();
+    }
+
+    public long getUnchanged() {
+        return unchanged.sum();
+    }
+
+    public long getDeleted() {
+        return deleted.sum();
+    }
+
+    /**
+     * Deletes .txt files that were not produced by this pass and directories left empty, hidden directories are skipped.
+     */
+    private void deleteStale(Path dir, Set<Path> outputs, Set<Path> kept) throws IOException {
+        if (!Files.isDirectory(dir))
+            return;
+
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs) {
+                if (kept.contains(path.toAbsolutePath().normalize()) || (!path.equals(dir) && path.getFileName().toString().startsWith(".")))
+                    return FileVisitResult.SKIP_SUBTREE;
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) throws IOException {
+                if (attrs.isRegularFile() && path.getFileName().toString().endsWith(".txt") &&
+                        !outputs.contains(path.toAbsolutePath().normalize())) {
+                    Files.delete(path);
+                    deleted.increment();
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path path, IOException e) throws IOException {
+                if (e != null)
+                    throw e;
+                if (!path.equals(dir)) {
+                    boolean empty;
+                    try (DirectoryStream<Path> entries = Files.newDirectoryStream(path)) {
+                        empty = !entries.iterator().hasNext();
+                    }
+                    if (empty)
+                        Files.delete(path);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void write(BlockingQueue<Output> queue, List<String> failures) {
+        try {
+            for (Output output = queue.take(); output != END; output = queue.take()) {
+                try {
+                    if (write(output.file.toPath(), output.data))
+                        written.increment();
+                    else
+                        unchanged.increment();
+                } catch (Exception e) {
+                    failures.add(output.name + ": " + e);
+                }
+            }
+        } catch (InterruptedException ignore) {
+        }
+    }
+
+    /**
+     * @return false if the file already has this content
+     */
+    static boolean write(Path path, byte[] data) throws IOException {
+        if (Files.isRegularFile(path) && Files.size(path) == data.length) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                ByteBuffer existing = ByteBuffer.allocate(data.length);
+                while (existing.hasRemaining())
+                    if (channel.read(existing) < 0)
+                        break;
+                existing.flip();
+                if (existing.equals(ByteBuffer.wrap(data)))
+                    return false;
+            }
+        }
+
+        Files.createDirectories(path.getParent());
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        }
+        return true;
+    }
+
+    File getPackageDir(File file) {
+        Path path = root.toPath().toAbsolutePath().normalize();
+        Path filePath = file.toPath().toAbsolutePath().normalize();
+        if (filePath.startsWith(path))
+            return new File(outDir, path.relativize(filePath).toString());
+        return new File(new File(outDir, file.getParentFile().getName()), file.getName());
+    }
+
+    static File getOutputFile(File packageDir, UnrealPackage.ExportEntry entry) {
+        return new File(packageDir, entry.getObjectInnerFullName() + ".txt");
+    }
+
+    /**
+     * Output directory of a package folder, consistent with {@link #getPackageDir}.
+     */
+    File getMirrorDir(File dir) {
+        Path path = root.toPath().toAbsolutePath().normalize();
+        Path dirPath = dir.toPath().toAbsolutePath().normalize();
+        if (dirPath.startsWith(path))
+            return new File(outDir, path.relativize(dirPath).toString());
+        return new File(outDir, dir.getName());
+    }
+
+    private static List<String> join(List<? extends RecursiveTask<List<String>>> tasks) {
+        List<String> failures = new ArrayList<>();
+        for (RecursiveTask<List<String>> task : tasks)
+            failures.addAll(task.join());
+        return failures;
+    }
+
+    /**
+     * Waits for queue space without starving the pool, it may add a worker meanwhile.
+     */
+    private static void put(BlockingQueue<Output> queue, Output output) throws InterruptedException {
+        ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+            private boolean done;
+
+            @Override
+            public boolean block() throws InterruptedException {
+                if (!done) {
+                    queue.put(output);
+                    done = true;
+                }
+                return true;
+            }
+
+            @Override
+            public boolean isReleasable() {
+                return done || (done = queue.offer(output));
+            }
+        });
+    }
+
+    private class PackagesTask extends RecursiveTask<List<String>> {
+        private final List<File> packages;
+        private final Function<File, Lock> readLocks;
+        private final BlockingQueue<Output> queue;
+        private final Set<Path> outputs;
+        private final Set<Path> kept;
+
+        PackagesTask(List<File> packages, Function<File, Lock> readLocks, BlockingQueue<Output> queue, Set<Path> outputs, Set<Path> kept) {
+            this.packages = packages;
+            this.readLocks = readLocks;
+            this.queue = queue;
+            this.outputs = outputs;
+            this.kept = kept;
+        }
+
+        @Override
+        protected List<String> compute() {
+            List<PackageTask> tasks = new ArrayList<>(packages.size());
+            for (File file : packages)
+                tasks.add(new PackageTask(file, readLocks.apply(file), queue, outputs, kept));
+            invokeAll(tasks);
+            return join(tasks);
+        }
+    }
+
+    private class PackageTask extends RecursiveTask<List<String>> {
+        private final File file;
+        private final Lock lock;
+        private final BlockingQueue<Output> queue;
+        private final Set<Path> outputs;
+        private final Set<Path> kept;
+
+        PackageTask(File file, Lock lock, BlockingQueue<Output> queue, Set<Path> outputs, Set<Path> kept) {
+            this.file = file;
+            this.lock = lock;
+            this.queue = queue;
+            this.outputs = outputs;
+            this.kept = kept;
+        }
+
+        @Override
+        protected List<String> compute() {
+            if (lock != null)
+                lock.lock();
+            try {
+                return decompile();
+            } finally {
+                if (lock != null)
+                    lock.unlock();
+            }
+        }
+
+        private List<String> decompile() {
+            try (UnrealPackage up = Util.openPackage(file, true)) {
+                int count = up.getExportTable().size();
+                log.fine(() -> String.format("%s: %d exports", file, count));
+
+                //registered before decompiling, failed or interrupted exports keep their previous output
+                File dir = getPackageDir(file);
+                for (UnrealPackage.ExportEntry entry : up.getExportTable())
+                    outputs.add(getOutputFile(dir, entry).toPath().toAbsolutePath().normalize());
+
+                List<ExportsTask> tasks = new ArrayList<>();
+                for (int from = 0; from < count; from += SPLIT_THRESHOLD)
+                    tasks.add(new ExportsTask(file, up, from, Math.min(count, from + SPLIT_THRESHOLD), queue));
+                invokeAll(tasks);
+                return join(tasks);
+            } catch (Exception e) {
+                kept.add(getPackageDir(file).toPath().toAbsolutePath().normalize());
+                return Collections.singletonList(file + ": " + e);
+            }
+        }
+    }
+
+    /**
+     * Chunks of one package share its tables, which are only read once loaded.
+     */
+    private class ExportsTask extends RecursiveTask<List<String>> {
+        private final File file;
+        private final UnrealPackage up;
+        private final int from;
+        private final int to;
+        private final BlockingQueue<Output> queue;
+
+        ExportsTask(File file, UnrealPackage up, int from, int to, BlockingQueue<Output> queue) {
+            this.file = file;
+            this.up = up;
+            this.from = from;
+            this.to = to;
+            this.queue = queue;
+        }
+
+        @Override
+        protected List<String> compute() {
+            List<String> failures = new ArrayList<>();
+            UnrealSerializerFactory factory = factories.get();
+            File dir = getPackageDir(file);
+            long weight = 0;
+            for (int i = from; i < to; i++) {
+                UnrealPackage.ExportEntry entry = up.getExportTable().get(i);
+                weight += Math.max(entry.getSize(), 0);
+                try {
+                    Object object = Decompiler.instantiate(entry, factory);
+
+                    CharSequence text = Decompiler.decompileProperties(object, factory, 0);
+                    put(queue, new Output(getOutputFile(dir, entry),
+                            entry.getObjectFullName(),
+                            text.toString().getBytes(StandardCharsets.UTF_8)));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failures.add(file + ": interrupted");
+                    break;
+                } catch (Exception e) {
+                    failures.add(entry.getObjectFullName() + ": " + e);
+                }
+            }
+            factories.release(weight);
+            return failures;
+        }
+    }
+
+    private static class Output {
+        final File file;
+        final String name;
+        final byte[] data;
+
+        Output(File file, String name, byte[] data) {
+            this.file = file;
+            this.name = name;
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.l2pe;
+
+import acmi.l2.clientmod.io.UnrealPackage;
+
+import java.io.File;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Flight Recorder events, e.g. {@code -XX:StartFlightRecording=filename=l2pe.jfr}.
+ * {@link JfrEvents} is only loaded if {@code jdk.jfr} is available, otherwise events are null and ignored,
+ * so nothing here may name a {@code jdk.jfr} type.
+ * {@code -DL2pe.jfr=false} turns them off.
+ */
+class Events {
+    private static final boolean ENABLED = System.getProperty("L2pe.jfr", "true").equalsIgnoreCase("true") && available();
+
+    private static boolean available() {
+        try {
+            Class.forName("jdk.jfr.Event", false, Events.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            Logger.getLogger(Events.class.getName()).log(Level.FINE, "Flight Recorder events disabled", e);
+            return false;
+        }
+    }
+
+    static Object packageOpen() {
+        return ENABLED ? JfrEvents.packageOpen() : null;
+    }
+
+    static void packageOpened(Object event, UnrealPackage up, File file, boolean readOnly, long size) {
+        if (event != null)
+            JfrEvents.packageOpened(event, up, file, readOnly, size);
+    }
+
+    static Object objectLoad() {
+        return ENABLED ? JfrEvents.objectLoad() : null;
+    }
+
+    static void objectLoaded(Object event, UnrealPackage.ExportEntry entry) {
+        if (event != null)
+            JfrEvents.objectLoaded(event, entry);
+    }
+
+    static Object objectCreate() {
+        return ENABLED ? JfrEvents.objectCreate() : null;
+    }
+
+    static void objectCreated(Object event, UnrealPackage.ExportEntry entry, boolean isClass) {
+        if (event != null)
+            JfrEvents.objectCreated(event, entry, isClass);
+    }
+
+    static Object decompile() {
+        return ENABLED ? JfrEvents.decompile() : null;
+    }
+
+    static void decompiled(Object event, UnrealPackage.ExportEntry entry) {
+        if (event != null)
+            JfrEvents.decompiled(event, entry);
+    }
+
+    static Object rawDataWrite() {
+        return ENABLED ? JfrEvents.rawDataWrite() : null;
+    }
+
+    static void rawDataWritten(Object event, UnrealPackage.ExportEntry entry, int oldSize, int newSize) {
+        if (event != null)
+            JfrEvents.rawDataWritten(event, entry, oldSize, newSize);
+    }
+}
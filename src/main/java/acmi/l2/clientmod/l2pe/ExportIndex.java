@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.l2pe;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Export full names of all packages in sorted arrays with a trigram index, answers prefix and substring queries.
+ * Immutable and thread safe, updates produce a new index.
+ */
+public class ExportIndex {
+    private static final Logger log = Logger.getLogger(ExportIndex.class.getName());
+
+    private final Map<File, PackageExports> packages;
+    private final File[] files;
+    private final String[] keys;
+    private final int[] fileIds;
+    private final int[] exportIndexes;
+    private final TrigramIndex trigrams;
+
+    private ExportIndex(Map<File, PackageExports> packages) {
+        this.packages = packages;
+        this.files = packages.keySet().toArray(new File[packages.size()]);
+
+        int size = 0;
+        for (PackageExports exports : packages.values())
+            size += exports.names.length;
+
+        Record[] records = new Record[size];
+        int n = 0;
+        for (int fileId = 0; fileId < files.length; fileId++) {
+            PackageExports exports = packages.get(files[fileId]);
+            for (int i = 0; i < exports.names.length; i++)
+                records[n++] = new Record(exports.names[i].toLowerCase(), fileId, i);
+        }
+        Arrays.sort(records, (r1, r2) -> r1.key.compareTo(r2.key));
+
+        this.keys = new String[size];
+        this.fileIds = new int[size];
+        this.exportIndexes = new int[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = records[i].key;
+            fileIds[i] = records[i].fileId;
+            exportIndexes[i] = records[i].exportIndex;
+        }
+        this.trigrams = new TrigramIndex(keys);
+    }
+
+    public static ExportIndex build(Collection<File> files, MetadataCache metadataCache) {
+        Map<File, PackageExports> packages = new ConcurrentHashMap<>();
+        files.parallelStream().forEach(file -> packages.put(file, PackageExports.read(file, metadataCache)));
+        return new ExportIndex(new HashMap<>(packages));
+    }
+
+    public ExportIndex withPackage(File file, MetadataCache metadataCache) {
+        Map<File, PackageExports> packages = new HashMap<>(this.packages);
+        if (file.exists())
+            packages.put(file, PackageExports.read(file, metadataCache));
+        else
+            packages.remove(file);
+        return new ExportIndex(packages);
+    }
+
+    public Optional<File> findFile(String packageName) {
+        return packages.keySet()
+                .stream()
+                .filter(f -> Util.getPackageName(f).equalsIgnoreCase(packageName))
+                .findAny();
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * @return prefix matches first, then substring matches, both in name order
+     */
+    public List<Hit> find(String query, int limit) {
+        String q = query.toLowerCase();
+        List<Hit> hits = new ArrayList<>();
+
+        int from = lowerBound(q);
+        int to = from;
+        while (to < keys.length && keys[to].startsWith(q))
+            to++;
+        for (int i = from; i < to && hits.size() < limit; i++)
+            hits.add(hit(i));
+
+        if (hits.size() < limit) {
+            //prefix matches are substring matches too
+            for (int i : trigrams.find(q, (int) Math.min(Integer.MAX_VALUE, (long) limit + to - from))) {
+                if (i >= from && i < to)
+                    continue;
+                hits.add(hit(i));
+                if (hits.size() >= limit)
+                    break;
+            }
+        }
+        return hits;
+    }
+
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid].compareTo(key) < 0)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    private Hit hit(int i) {
+        File file = files[fileIds[i]];
+        PackageExports exports = packages.get(file);
+        return new Hit(file, exportIndexes[i], exports.names[exportIndexes[i]], exports.classes[exportIndexes[i]]);
+    }
+
+    private static class Record {
+        final String key;
+        final int fileId;
+        final int exportIndex;
+
+        Record(String key, int fileId, int exportIndex) {
+            this.key = key;
+            this.fileId = fileId;
+            this.exportIndex = exportIndex;
+        }
+    }
+
+    static class PackageExports {
+        private static final PackageExports EMPTY = new PackageExports(new String[0], new String[0]);
+
+        final String[] names;
+        final String[] classes;
+
+        PackageExports(String[] names, String[] classes) {
+            this.names = names;
+            this.classes = classes;
+        }
+
+        static PackageExports read(File file, MetadataCache metadataCache) {
+            try {
+                PackageMetadata.Export[] exports = metadataCache.get(file).getExports();
+                String[] names = new String[exports.length];
+                String[] classes = new String[exports.length];
+                for (int i = 0; i < exports.length; i++) {
+                    names[i] = exports[i].getName();
+                    classes[i] = exports[i].getClassName();
+                }
+                return new PackageExports(names, classes);
+            } catch (Exception e) {
+                log.log(Level.WARNING, e, () -> "Couldn't index " + file);
+                return EMPTY;
+            }
+        }
+    }
+
+    public static class Hit {
+        private final File file;
+        private final int exportIndex;
+        private final String name;
+        private final String className;
+
+        Hit(File file, int exportIndex, String name, String className) {
+            this.file = file;
+            this.exportIndex = exportIndex;
+            this.name = name;
+            this.className = className;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public int getExportIndex() {
+            return exportIndex;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        @Override
+        public String toString() {
+            return name + " [" + className + "]";
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.l2pe;
+
+import acmi.l2.clientmod.io.UnrealPackage;
+import jdk.jfr.*;
+
+import java.io.File;
+
+/**
+ * Flight Recorder events, only loaded by {@link Events} when {@code jdk.jfr} is available.
+ * Fields are only filled when the event is going to be recorded.
+ */
+class JfrEvents {
+    private static final String CATEGORY = "L2pe";
+
+    private static Object begin(Event event) {
+        event.begin();
+        return event;
+    }
+
+    static Object packageOpen() {
+        return begin(new PackageOpen());
+    }
+
+    static Object objectLoad() {
+        return begin(new ObjectLoad());
+    }
+
+    static Object objectCreate() {
+        return begin(new ObjectCreate());
+    }
+
+    static Object decompile() {
+        return begin(new Decompile());
+    }
+
+    static Object rawDataWrite() {
+        return begin(new RawDataWrite());
+    }
+
+    static void packageOpened(Object e, UnrealPackage up, File file, boolean readOnly, long size) {
+        PackageOpen event = (PackageOpen) e;
+        if (event.shouldCommit()) {
+            event.packageName = up.getPackageName();
+            event.file = file.getPath();
+            event.readOnly = readOnly;
+            event.size = size;
+            event.exportCount = up.getExportTable().size();
+            event.commit();
+        }
+    }
+
+    static void objectLoaded(Object e, UnrealPackage.ExportEntry entry) {
+        ObjectLoad event = (ObjectLoad) e;
+        if (event.shouldCommit()) {
+            event.packageName = entry.getUnrealPackage().getPackageName();
+            event.exportIndex = entry.getIndex();
+            event.objectName = entry.getObjectInnerFullName();
+            event.className = entry.getFullClassName();
+            event.size = entry.getSize();
+            event.commit();
+        }
+    }
+
+    static void objectCreated(Object e, UnrealPackage.ExportEntry entry, boolean isClass) {
+        ObjectCreate event = (ObjectCreate) e;
+        if (event.shouldCommit()) {
+            event.packageName = entry.getUnrealPackage().getPackageName();
+            event.exportIndex = entry.getIndex();
+            event.objectName = entry.getObjectInnerFullName();
+            event.className = entry.getFullClassName();
+            event.isClass = isClass;
+            event.size = entry.getSize();
+            event.commit();
+        }
+    }
+
+    static void decompiled(Object e, UnrealPackage.ExportEntry entry) {
+        Decompile event = (Decompile) e;
+        if (event.shouldCommit()) {
+            event.packageName = entry.getUnrealPackage().getPackageName();
+            event.exportIndex = entry.getIndex();
+            event.objectName = entry.getObjectInnerFullName();
+            event.className = entry.getFullClassName();
+            event.size = entry.getSize();
+            event.commit();
+        }
+    }
+
+    static void rawDataWritten(Object e, UnrealPackage.ExportEntry entry, int oldSize, int newSize) {
+        RawDataWrite event = (RawDataWrite) e;
+        if (event.shouldCommit()) {
+            event.packageName = entry.getUnrealPackage().getPackageName();
+            event.exportIndex = entry.getIndex();
+            event.objectName = entry.getObjectInnerFullName();
+            event.className = entry.getFullClassName();
+            event.oldSize = oldSize;
+            event.newSize = newSize;
+            event.commit();
+        }
+    }
+
+    @Name("acmi.l2.clientmod.l2pe.PackageOpen")
+    @Label("Package Open")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static class PackageOpen extends Event {
+        @Label("Package")
+        String packageName;
+
+        @Label("File")
+        String file;
+
+        @Label("Read Only")
+        boolean readOnly;
+
+        @Label("File Size")
+        @DataAmount
+        long size;
+
+        @Label("Exports")
+        int exportCount;
+    }
+
+    @Name("acmi.l2.clientmod.l2pe.ObjectLoad")
+    @Label("Object Load")
+    @Description("getOrCreateObject")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static class ObjectLoad extends Event {
+        @Label("Package")
+        String packageName;
+
+        @Label("Export Index")
+        int exportIndex;
+
+        @Label("Object")
+        String objectName;
+
+        @Label("Class")
+        String className;
+
+        @Label("Raw Size")
+        @DataAmount
+        long size;
+    }
+
+    @Name("acmi.l2.clientmod.l2pe.ObjectCreate")
+    @Label("Object Create")
+    @Description("New export written by createObject or createClass")
+    @Category(CATEGORY)
+    public static class ObjectCreate extends Event {
+        @Label("Package")
+        String packageName;
+
+        @Label("Export Index")
+        int exportIndex;
+
+        @Label("Object")
+        String objectName;
+
+        @Label("Class")
+        String className;
+
+        @Label("Is Class")
+        boolean isClass;
+
+        @Label("Raw Size")
+        @DataAmount
+        long size;
+    }
+
+    @Name("acmi.l2.clientmod.l2pe.Decompile")
+    @Label("Decompile")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static class Decompile extends Event {
+        @Label("Package")
+        String packageName;
+
+        @Label("Export Index")
+        int exportIndex;
+
+        @Label("Object")
+        String objectName;
+
+        @Label("Class")
+        String className;
+
+        @Label("Raw Size")
+        @DataAmount
+        long size;
+    }
+
+    @Name("acmi.l2.clientmod.l2pe.RawDataWrite")
+    @Label("Raw Data Write")
+    @Description("setObjectRawData, rewrites the package tables")
+    @Category(CATEGORY)
+    public static class RawDataWrite extends Event {
+        @Label("Package")
+        String packageName;
+
+        @Label("Export Index")
+        int exportIndex;
+
+        @Label("Object")
+        String objectName;
+
+        @Label("Class")
+        String className;
+
+        @Label("Old Size")
+        @DataAmount
+        long oldSize;
+
+        @Label("New Size")
+        @DataAmount
+        long newSize;
+    }
+}
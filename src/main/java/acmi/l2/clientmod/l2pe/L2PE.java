@@ -31,15 +31,14 @@ import javafx.scene.Scene;
 import javafx.stage.Screen;
 import javafx.stage.Stage;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URISyntaxException;
 import java.nio.file.Paths;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 import java.util.logging.Level;
-import java.util.logging.LogManager;
 import java.util.logging.Logger;
 import java.util.prefs.Preferences;
 
@@ -123,17 +122,16 @@ public class L2PE extends Application {
         return Preferences.userRoot().node("l2clientmod").node("l2pe");
     }
 
+    public static File getDataDir() {
+        return new File(System.getProperty("L2pe.dataDir",
+                System.getProperty("user.home") + File.separator + ".l2clientmod" + File.separator + "l2pe"));
+    }
+
     private static Preferences windowPrefs() {
         return getPrefs().node("window");
     }
 
     public static void main(String[] args) {
-        try (InputStream is = L2PE.class.getResourceAsStream("/logging.properties")) {
-            LogManager.getLogManager().readConfiguration(is);
-        } catch (IOException e) {
-            System.err.println("Couldn't load logging.properties");
-        }
-
-        launch(args);
+        Main.main(args);
     }
 }
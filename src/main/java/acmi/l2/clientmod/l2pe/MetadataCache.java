@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.l2pe;
+
+import java.io.*;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * {@link PackageMetadata} kept in memory and in {@code dir}, one file per package.
+ * Entries are valid while package size and modification time match.
+ */
+public class MetadataCache {
+    private static final Logger log = Logger.getLogger(MetadataCache.class.getName());
+
+    private static final int MAGIC = 0x4C32504D;
+    private static final int VERSION = 1;
+
+    private final File dir;
+    private final Map<File, PackageMetadata> memory = new ConcurrentHashMap<>();
+
+    public MetadataCache(File dir) {
+        this.dir = dir;
+    }
+
+    public PackageMetadata get(File file) {
+        PackageMetadata metadata = memory.get(file);
+        if (metadata != null && metadata.isUpToDate())
+            return metadata;
+
+        metadata = load(file);
+        if (metadata == null || !metadata.isUpToDate()) {
+            metadata = PackageMetadata.read(file);
+            store(metadata);
+        }
+        memory.put(file, metadata);
+        return metadata;
+    }
+
+    public void refresh(Collection<File> files) {
+        files.parallelStream().forEach(file -> {
+            try {
+                get(file);
+            } catch (Exception e) {
+                log.log(Level.WARNING, e, () -> "Couldn't read " + file);
+            }
+        });
+    }
+
+    public void invalidate(String packageName) {
+        memory.keySet().removeIf(file -> {
+            if (!Util.getPackageName(file).equalsIgnoreCase(packageName))
+                return false;
+            cacheFile(file).delete();
+            return true;
+        });
+    }
+
+    File cacheFile(File file) {
+        return new File(dir, Util.cacheFileName(file) + ".meta");
+    }
+
+    private PackageMetadata load(File file) {
+        File cacheFile = cacheFile(file);
+        if (!cacheFile.isFile())
+            return null;
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION)
+                return null;
+            PackageMetadata metadata = PackageMetadata.read(input);
+            return metadata.getFile().equals(file) ? metadata : null;
+        } catch (IOException e) {
+            log.log(Level.FINE, e, () -> "Couldn't read " + cacheFile);
+            return null;
+        }
+    }
+
+    private void store(PackageMetadata metadata) {
+        File cacheFile = cacheFile(metadata.getFile());
+        File tmp = new File(cacheFile.getPath() + ".tmp");
+        dir.mkdirs();
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            metadata.write(output);
+        } catch (IOException e) {
+            log.log(Level.WARNING, e, () -> "Couldn't write " + cacheFile);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(cacheFile)) {
+            cacheFile.delete();
+            tmp.renameTo(cacheFile);
+        }
+    }
+}
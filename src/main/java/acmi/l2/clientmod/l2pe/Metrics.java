@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.l2pe;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Per stage latency histograms and byte counts, registered as MXBeans under {@code acmi.l2.clientmod.l2pe}.
+ * <pre>
+ * long start = System.nanoTime();
+ * ...
+ * Metrics.SAVE.record(start, bytes);
+ * </pre>
+ */
+public class Metrics {
+    private static final Logger log = Logger.getLogger(Metrics.class.getName());
+
+    public static final String DOMAIN = "acmi.l2.clientmod.l2pe";
+
+    public static final Stage OPEN = new Stage("open", "package open, decrypt and table parse");
+    public static final Stage DESERIALIZE = new Stage("deserialize", "getOrCreateObject");
+    public static final Stage REMOVE_DEFAULTS = new Stage("removeDefaults", "removeDefaults");
+    public static final Stage DECOMPILE = new Stage("decompile", "properties to text");
+    public static final Stage SAVE = new Stage("save", "object serialization");
+    public static final Stage COMMIT = new Stage("commit", "edit session write");
+
+    private static final List<Stage> STAGES = Collections.unmodifiableList(Arrays.asList(OPEN, DESERIALIZE, REMOVE_DEFAULTS, DECOMPILE, SAVE, COMMIT));
+
+    private static volatile ObjectCache objectCache;
+
+    static {
+        for (Stage stage : STAGES)
+            register("type=Stage,name=" + stage.getName(), stage);
+    }
+
+    public static List<Stage> getStages() {
+        return STAGES;
+    }
+
+    public static void setObjectCache(ObjectCache objectCache) {
+        Metrics.objectCache = objectCache;
+        register("type=ObjectCache", objectCache);
+    }
+
+    static void register(String name, java.lang.Object mbean) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(DOMAIN + ":" + name);
+            if (server.isRegistered(objectName))
+                server.unregisterMBean(objectName);
+            if (mbean != null)
+                server.registerMBean(mbean, objectName);
+        } catch (InstanceAlreadyExistsException ignore) {
+        } catch (Exception e) {
+            log.log(Level.WARNING, e, () -> "Couldn't register MBean " + name);
+        }
+    }
+
+    public static void reset() {
+        STAGES.forEach(Stage::reset);
+    }
+
+    public static String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-16s %10s %12s %10s %10s %10s %10s %10s %14s%n",
+                "stage", "count", "total ms", "mean us", "p50 us", "p90 us", "p99 us", "max us", "bytes"));
+        for (Stage stage : STAGES) {
+            sb.append(String.format("%-16s %10d %12d %10d %10d %10d %10d %10d %14d%n",
+                    stage.getName(), stage.getCount(), stage.getTotalMillis(), stage.getMeanMicros(),
+                    stage.getP50Micros(), stage.getP90Micros(), stage.getP99Micros(), stage.getMaxMicros(), stage.getBytes()));
+        }
+        ObjectCache cache = objectCache;
+        if (cache != null)
+            sb.append(String.format("%n%s%n", cache));
+        return sb.toString();
+    }
+
+    public interface StageMXBean {
+        String getName();
+
+        String getDescription();
+
+        long getCount();
+
+        long getTotalMillis();
+
+        long getMeanMicros();
+
+        long getMaxMicros();
+
+        long getP50Micros();
+
+        long getP90Micros();
+
+        long getP99Micros();
+
+        long getBytes();
+
+        void reset();
+    }
+
+    /**
+     * Histogram buckets are powers of two in nanoseconds, percentiles report the bucket upper bound.
+     */
+    public static class Stage implements StageMXBean {
+        private static final int BUCKETS = 48;
+
+        private final String name;
+        private final String description;
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+        Stage(String name, String description) {
+            this.name = name;
+            this.description = description;
+            for (int i = 0; i < BUCKETS; i++)
+                buckets[i] = new LongAdder();
+        }
+
+        public void record(long startNanos) {
+            record(startNanos, 0);
+        }
+
+        public void record(long startNanos, long bytes) {
+            long nanos = Math.max(0, System.nanoTime() - startNanos);
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+            buckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos))].increment();
+            if (bytes > 0)
+                this.bytes.add(bytes);
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String getDescription() {
+            return description;
+        }
+
+        @Override
+        public long getCount() {
+            return count.sum();
+        }
+
+        @Override
+        public long getTotalMillis() {
+            return totalNanos.sum() / 1_000_000;
+        }
+
+        @Override
+        public long getMeanMicros() {
+            long count = getCount();
+            return count == 0 ? 0 : totalNanos.sum() / count / 1000;
+        }
+
+        @Override
+        public long getMaxMicros() {
+            return maxNanos.get() / 1000;
+        }
+
+        @Override
+        public long getP50Micros() {
+            return percentile(0.5);
+        }
+
+        @Override
+        public long getP90Micros() {
+            return percentile(0.9);
+        }
+
+        @Override
+        public long getP99Micros() {
+            return percentile(0.99);
+        }
+
+        private long percentile(double p) {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++)
+                total += counts[i] = buckets[i].sum();
+            if (total == 0)
+                return 0;
+
+            long rank = (long) Math.ceil(total * p);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank)
+                    return Math.min(i == 0 ? 0 : 1L << i, maxNanos.get()) / 1000;
+            }
+            return getMaxMicros();
+        }
+
+        @Override
+        public long getBytes() {
+            return bytes.sum();
+        }
+
+        @Override
+        public void reset() {
+            count.reset();
+            totalNanos.reset();
+            bytes.reset();
+            maxNanos.reset();
+            for (LongAdder bucket : buckets)
+                bucket.reset();
+        }
+    }
+}
@@ -0,0 +1,368 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.l2pe;
+
+import acmi.l2.clientmod.io.UnrealPackage;
+import acmi.l2.clientmod.unreal.UnrealSerializerFactory;
+import acmi.l2.clientmod.unreal.core.Object;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * LRU cache of deserialized objects in front of {@link UnrealSerializerFactory#getOrCreateObject},
+ * bounded by raw data size and backed by soft references.
+ * Loads are serialized on the factory, which is not thread safe.
+ * <p>
+ * The factory keeps every object it loaded, so once the weight dropped from the cache reaches the bound
+ * it is replaced by a new one and the old one is left to the garbage collector.
+ * Objects with queued saves are pinned, so a later get returns the edited instance rather than a new copy.
+ * Objects have to be saved with the factory that loaded them, {@link #load} returns it with the object.
+ */
+public class ObjectCache implements ObjectCacheMXBean {
+    private static final long DEFAULT_MAX_WEIGHT = Long.getLong("L2pe.objectCacheMB", 256) << 20;
+    private static final int ENTRY_OVERHEAD = 256;
+
+    private final Supplier<UnrealSerializerFactory> factories;
+    private final long maxWeight;
+
+    private volatile UnrealSerializerFactory objectFactory;
+    private Consumer<UnrealSerializerFactory> factoryListener;
+
+    private final LinkedHashMap<Key, Node> nodes = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Key, Loaded> pinned = new HashMap<>();
+    private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+    private long weight;
+    private long released;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder collected = new LongAdder();
+    private final LongAdder prefetched = new LongAdder();
+    private final LongAdder factoryResets = new LongAdder();
+
+    public ObjectCache(Supplier<UnrealSerializerFactory> factories) {
+        this(factories, DEFAULT_MAX_WEIGHT);
+    }
+
+    public ObjectCache(Supplier<UnrealSerializerFactory> factories, long maxWeight) {
+        this.factories = factories;
+        this.maxWeight = maxWeight;
+        this.objectFactory = factories.get();
+    }
+
+    public UnrealSerializerFactory getObjectFactory() {
+        return objectFactory;
+    }
+
+    /**
+     * Called with the new factory after the previous one was dropped, on the loading thread.
+     */
+    public synchronized void setFactoryListener(Consumer<UnrealSerializerFactory> factoryListener) {
+        this.factoryListener = factoryListener;
+    }
+
+    public Object get(UnrealPackage.ExportEntry entry) {
+        return load(entry).getObject();
+    }
+
+    public Loaded load(UnrealPackage.ExportEntry entry) {
+        Key key = new Key(entry.getUnrealPackage().getPackageName(), entry.getIndex());
+
+        UnrealSerializerFactory factory;
+        synchronized (this) {
+            expunge();
+
+            Loaded pinnedObject = pinned.get(key);
+            if (pinnedObject != null) {
+                hits.increment();
+                return pinnedObject;
+            }
+
+            Node node = nodes.get(key);
+            if (node != null) {
+                Object object = node.get();
+                if (object != null) {
+                    hits.increment();
+                    return new Loaded(object, node.factory);
+                }
+                remove(key);
+            }
+            factory = factory();
+        }
+
+        misses.increment();
+        Object object;
+        synchronized (factory) {
+            object = Util.loadObject(factory, entry);
+        }
+
+        synchronized (this) {
+            remove(key);
+            Node node = new Node(key, object, factory, ENTRY_OVERHEAD + Math.max(entry.getSize(), 0), queue);
+            nodes.put(key, node);
+            weight += node.weight;
+            evict();
+        }
+        return new Loaded(object, factory);
+    }
+
+    /**
+     * Loads the object only if it fits without evicting anything.
+     *
+     * @return false if the cache is full
+     */
+    public boolean prefetch(UnrealPackage.ExportEntry entry) {
+        Key key = new Key(entry.getUnrealPackage().getPackageName(), entry.getIndex());
+        long nodeWeight = ENTRY_OVERHEAD + Math.max(entry.getSize(), 0);
+
+        UnrealSerializerFactory factory;
+        synchronized (this) {
+            expunge();
+
+            if (pinned.containsKey(key))
+                return true;
+            Node node = nodes.get(key);
+            if (node != null && node.get() != null)
+                return true;
+            if (weight + nodeWeight > maxWeight)
+                return false;
+            factory = factory();
+        }
+
+        Object object;
+        synchronized (factory) {
+            object = Util.loadObject(factory, entry);
+        }
+
+        synchronized (this) {
+            remove(key);
+            Node node = new Node(key, object, factory, nodeWeight, queue);
+            nodes.put(key, node);
+            weight += node.weight;
+            evict();
+        }
+        prefetched.increment();
+        return true;
+    }
+
+    public synchronized boolean contains(UnrealPackage.ExportEntry entry) {
+        Key key = new Key(entry.getUnrealPackage().getPackageName(), entry.getIndex());
+        Node node = nodes.get(key);
+        return pinned.containsKey(key) || (node != null && node.get() != null);
+    }
+
+    /**
+     * Keeps the object for the entry until its package is invalidated, e.g. while a save of it is queued.
+     */
+    public synchronized void pin(UnrealPackage.ExportEntry entry, Loaded loaded) {
+        pinned.put(new Key(entry.getUnrealPackage().getPackageName(), entry.getIndex()), loaded);
+    }
+
+    public synchronized void invalidate(String packageName) {
+        pinned.keySet().removeIf(key -> key.packageName.equalsIgnoreCase(packageName));
+        Iterator<Map.Entry<Key, Node>> it = nodes.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, Node> e = it.next();
+            if (e.getKey().packageName.equalsIgnoreCase(packageName)) {
+                weight -= e.getValue().weight;
+                released += e.getValue().weight;
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Pinned objects are kept.
+     */
+    @Override
+    public synchronized void clear() {
+        released += weight;
+        nodes.clear();
+        weight = 0;
+    }
+
+    private UnrealSerializerFactory factory() {
+        if (released >= maxWeight) {
+            released = 0;
+            objectFactory = factories.get();
+            factoryResets.increment();
+            if (factoryListener != null)
+                factoryListener.accept(objectFactory);
+        }
+        return objectFactory;
+    }
+
+    private void remove(Key key) {
+        Node node = nodes.remove(key);
+        if (node != null)
+            weight -= node.weight;
+    }
+
+    private void evict() {
+        Iterator<Node> it = nodes.values().iterator();
+        while (weight > maxWeight && nodes.size() > 1 && it.hasNext()) {
+            Node node = it.next();
+            weight -= node.weight;
+            released += node.weight;
+            it.remove();
+            evictions.increment();
+        }
+    }
+
+    private void expunge() {
+        for (Reference<? extends Object> ref; (ref = queue.poll()) != null; ) {
+            Node node = (Node) ref;
+            if (nodes.get(node.key) == node) {
+                remove(node.key);
+                released += node.weight;
+                collected.increment();
+            }
+        }
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    @Override
+    public long getCollectedCount() {
+        return collected.sum();
+    }
+
+    @Override
+    public long getPrefetchCount() {
+        return prefetched.sum();
+    }
+
+    @Override
+    public long getFactoryResetCount() {
+        return factoryResets.sum();
+    }
+
+    @Override
+    public synchronized int getPinnedCount() {
+        return pinned.size();
+    }
+
+    @Override
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    @Override
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public synchronized int size() {
+        return nodes.size();
+    }
+
+    @Override
+    public int getSize() {
+        return size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ObjectCache[size=%d, weight=%d/%d, pinned=%d, hits=%d, misses=%d, prefetched=%d, evictions=%d, collected=%d, factory resets=%d]",
+                size(), getWeight(), maxWeight, getPinnedCount(), getHitCount(), getMissCount(), getPrefetchCount(), getEvictionCount(), getCollectedCount(), getFactoryResetCount());
+    }
+
+    private static class Key {
+        final String packageName;
+        final int index;
+
+        Key(String packageName, int index) {
+            this.packageName = packageName.toLowerCase();
+            this.index = index;
+        }
+
+        @Override
+        public boolean equals(java.lang.Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return index == key.index && packageName.equals(key.packageName);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * packageName.hashCode() + index;
+        }
+    }
+
+    /**
+     * Object and the factory that loaded it.
+     */
+    public static class Loaded {
+        private final Object object;
+        private final UnrealSerializerFactory objectFactory;
+
+        public Loaded(Object object, UnrealSerializerFactory objectFactory) {
+            this.object = object;
+            this.objectFactory = objectFactory;
+        }
+
+        public Object getObject() {
+            return object;
+        }
+
+        public UnrealSerializerFactory getObjectFactory() {
+            return objectFactory;
+        }
+    }
+
+    private static class Node extends SoftReference<Object> {
+        final Key key;
+        final UnrealSerializerFactory factory;
+        final long weight;
+
+        Node(Key key, Object object, UnrealSerializerFactory factory, long weight, ReferenceQueue<Object> queue) {
+            super(object, queue);
+            this.key = key;
+            this.factory = factory;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.l2pe;
+
+import acmi.l2.clientmod.io.UnrealPackage;
+import acmi.l2.clientmod.unreal.UnrealSerializerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Export level diff of two package sets, packages are paired by file name and exports by full name.
+ * Raw data is compared first, only exports that differ are deserialized and decompiled,
+ * then the decompiled text is diffed line by line.
+ * Old and new sides use separate factory pools, the same package name can't share an object cache.
+ */
+public class PackageDiff {
+    private static final Logger log = Logger.getLogger(PackageDiff.class.getName());
+
+    private static final int THREADS = Math.max(1, Integer.getInteger("L2pe.diffThreads", Runtime.getRuntime().availableProcessors()));
+    private static final int PENDING = Math.max(1, Integer.getInteger("L2pe.diffPending", THREADS * 2));
+    private static final long MAX_LCS = 1L << 22;
+
+    private final SerializerFactoryPool oldFactories;
+    private final SerializerFactoryPool newFactories;
+
+    private final Stats stats = new Stats();
+
+    public PackageDiff(SerializerFactoryPool oldFactories, SerializerFactoryPool newFactories) {
+        this.oldFactories = oldFactories;
+        this.newFactories = newFactories;
+    }
+
+    public Stats getStats() {
+        return stats;
+    }
+
+    /**
+     * Pairs run in parallel, output is written in old package order as soon as each pair is done.
+     * At most {@code L2pe.diffPending} pairs are submitted ahead of the one being written,
+     * so a slow package holds back a bounded amount of finished output.
+     */
+    public void diff(List<File> oldPackages, List<File> newPackages, Appendable out) throws IOException, InterruptedException {
+        Map<String, File> newByName = new LinkedHashMap<>();
+        for (File file : newPackages)
+            newByName.putIfAbsent(file.getName().toLowerCase(), file);
+
+        List<File> sorted = new ArrayList<>(oldPackages);
+        sorted.sort((f1, f2) -> f1.getName().compareToIgnoreCase(f2.getName()));
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS, r -> {
+            Thread thread = new Thread(r, "L2pe Diff-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            Deque<Future<CharSequence>> results = new ArrayDeque<>(PENDING);
+            Iterator<File> oldFiles = sorted.iterator();
+            while (true) {
+                while (results.size() < PENDING && oldFiles.hasNext()) {
+                    File oldFile = oldFiles.next();
+                    File newFile = newByName.remove(oldFile.getName().toLowerCase());
+                    if (newFile == null)
+                        results.add(CompletableFuture.<CharSequence>completedFuture("Only in old: " + oldFile + "\n"));
+                    else
+                        results.add(executor.submit(() -> diff(oldFile, newFile)));
+                }
+                if (results.isEmpty())
+                    break;
+
+                try {
+                    out.append(results.poll().get());
+                } catch (ExecutionException e) {
+                    out.append("! ").append(String.valueOf(e.getCause())).append('\n');
+                }
+            }
+            for (File newFile : newByName.values())
+                out.append("Only in new: ").append(newFile.toString()).append('\n');
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public CharSequence diff(File oldFile, File newFile) {
+        StringBuilder out = new StringBuilder();
+        UnrealSerializerFactory oldFactory = oldFactories.get();
+        UnrealSerializerFactory newFactory = newFactories.get();
+
+        try (UnrealPackage oldUp = Util.openPackage(oldFile, true);
+             UnrealPackage newUp = Util.openPackage(newFile, true)) {
+            boolean sameTables = isPrefix(names(oldUp), names(newUp)) &&
+                    isPrefix(imports(oldUp), imports(newUp)) &&
+                    isPrefix(exports(oldUp), exports(newUp));
+
+            Map<String, UnrealPackage.ExportEntry> newExports = new LinkedHashMap<>();
+            for (UnrealPackage.ExportEntry entry : newUp.getExportTable())
+                newExports.putIfAbsent(entry.getObjectFullName().toLowerCase(), entry);
+
+            for (UnrealPackage.ExportEntry oldEntry : oldUp.getExportTable()) {
+                UnrealPackage.ExportEntry newEntry = newExports.remove(oldEntry.getObjectFullName().toLowerCase());
+                if (newEntry == null) {
+                    stats.removed.increment();
+                    out.append("- ").append(oldEntry.getObjectFullName()).append(" (").append(oldEntry.getFullClassName()).append(")\n");
+                    continue;
+                }
+
+                try {
+                    if (sameTables && oldEntry.getSize() == newEntry.getSize() &&
+                            Arrays.equals(oldEntry.getObjectRawData(), newEntry.getObjectRawData())) {
+                        stats.same.increment();
+                        continue;
+                    }
+
+                    List<String> oldLines = lines(Decompiler.decompileProperties(Util.loadObject(oldFactory, oldEntry), oldFactory, 0));
+                    List<String> newLines = lines(Decompiler.decompileProperties(Util.loadObject(newFactory, newEntry), newFactory, 0));
+                    if (!oldEntry.getFullClassName().equalsIgnoreCase(newEntry.getFullClassName())) {
+                        oldLines.add(0, "Class=" + oldEntry.getFullClassName());
+                        newLines.add(0, "Class=" + newEntry.getFullClassName());
+                    }
+                    if (oldLines.equals(newLines)) {
+                        stats.same.increment();
+                        continue;
+                    }
+
+                    stats.changed.increment();
+                    out.append("--- ").append(oldFile.getName()).append('/').append(oldEntry.getObjectInnerFullName()).append('\n');
+                    out.append("+++ ").append(newFile.getName()).append('/').append(newEntry.getObjectInnerFullName()).append('\n');
+                    diff(oldLines, newLines, out);
+                } catch (Exception e) {
+                    stats.failed.increment();
+                    out.append("! ").append(oldEntry.getObjectFullName()).append(": ").append(e.toString()).append('\n');
+                }
+            }
+
+            for (UnrealPackage.ExportEntry newEntry : newExports.values()) {
+                stats.added.increment();
+                out.append("+ ").append(newEntry.getObjectFullName()).append(" (").append(newEntry.getFullClassName()).append(")\n");
+            }
+        } catch (Exception e) {
+            stats.failed.increment();
+            out.append("! ").append(oldFile.getName()).append(": ").append(e.toString()).append('\n');
+        }
+        oldFactories.release(oldFile.length());
+        newFactories.release(newFile.length());
+
+        log.fine(() -> String.format("%s: done", oldFile));
+        return out;
+    }
+
+    /**
+     * Raw data is comparable when references resolve to the same names and objects,
+     * tables that only had entries appended keep old indices valid.
+     */
+    private static boolean isPrefix(List<String> a, List<String> b) {
+        int n = Math.min(a.size(), b.size());
+        for (int i = 0; i < n; i++)
+            if (!a.get(i).equals(b.get(i)))
+                return false;
+        return true;
+    }
+
+    private static List<String> names(UnrealPackage up) {
+        List<String> list = new ArrayList<>(up.getNameTable().size());
+        for (UnrealPackage.NameEntry entry : up.getNameTable())
+            list.add(entry.getName());
+        return list;
+    }
+
+    private static List<String> imports(UnrealPackage up) {
+        List<String> list = new ArrayList<>(up.getImportTable().size());
+        for (UnrealPackage.ImportEntry entry : up.getImportTable())
+            list.add(entry.getObjectFullName() + ":" + entry.getClassName().getName());
+        return list;
+    }
+
+    private static List<String> exports(UnrealPackage up) {
+        List<String> list = new ArrayList<>(up.getExportTable().size());
+        for (UnrealPackage.ExportEntry entry : up.getExportTable())
+            list.add(entry.getObjectFullName() + ":" + entry.getFullClassName());
+        return list;
+    }
+
+    private static List<String> lines(CharSequence text) {
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\r' || c == '\n') {
+                if (i > start)
+                    lines.add(text.subSequence(start, i).toString().trim());
+                start = i + 1;
+            }
+        }
+        if (start < text.length())
+            lines.add(text.subSequence(start, text.length()).toString().trim());
+        return lines;
+    }
+
+    /**
+     * Common head and tail are skipped, the rest goes through LCS unless it is too large,
+     * then it is printed as removed and added.
+     */
+    static void diff(List<String> a, List<String> b, StringBuilder out) {
+        int head = 0;
+        while (head < a.size() && head < b.size() && a.get(head).equals(b.get(head)))
+            head++;
+        int tail = 0;
+        while (tail < a.size() - head && tail < b.size() - head && a.get(a.size() - 1 - tail).equals(b.get(b.size() - 1 - tail)))
+            tail++;
+
+        List<String> x = a.subList(head, a.size() - tail);
+        List<String> y = b.subList(head, b.size() - tail);
+        int n = x.size(), m = y.size();
+
+        if ((long) (n + 1) * (m + 1) > MAX_LCS) {
+            x.forEach(line -> out.append("- ").append(line).append('\n'));
+            y.forEach(line -> out.append("+ ").append(line).append('\n'));
+            return;
+        }
+
+        int[][] lcs = new int[n + 1][m + 1];
+        for (int i = n - 1; i >= 0; i--)
+            for (int j = m - 1; j >= 0; j--)
+                lcs[i][j] = x.get(i).equals(y.get(j)) ? lcs[i + 1][j + 1] + 1 : Math.max(lcs[i + 1][j], lcs[i][j + 1]);
+
+        int i = 0, j = 0;
+        while (i < n && j < m) {
+            if (x.get(i).equals(y.get(j))) {
+                i++;
+                j++;
+            } else if (lcs[i + 1][j] >= lcs[i][j + 1]) {
+                out.append("- ").append(x.get(i++)).append('\n');
+            } else {
+                out.append("+ ").append(y.get(j++)).append('\n');
+            }
+        }
+        while (i < n)
+            out.append("- ").append(x.get(i++)).append('\n');
+        while (j < m)
+            out.append("+ ").append(y.get(j++)).append('\n');
+    }
+
+    public static class Stats {
+        private final LongAdder same = new LongAdder();
+        private final LongAdder changed = new LongAdder();
+        private final LongAdder added = new LongAdder();
+        private final LongAdder removed = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+
+        @Override
+        public String toString() {
+            return String.format("%d changed, %d added, %d removed, %d unchanged, %d failed",
+                    changed.sum(), added.sum(), removed.sum(), same.sum(), failed.sum());
+        }
+
+        public long getFailed() {
+            return failed.sum();
+        }
+    }
+}
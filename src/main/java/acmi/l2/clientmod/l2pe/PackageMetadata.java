@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.l2pe;
+
+import acmi.l2.clientmod.io.UnrealPackage;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Name, import and export tables of a package, detached from the file.
+ */
+public class PackageMetadata {
+    private final File file;
+    private final long size;
+    private final long lastModified;
+    private final String[] names;
+    private final Import[] imports;
+    private final Export[] exports;
+
+    private Map<String, Integer> classHistogram;
+
+    public PackageMetadata(File file, long size, long lastModified, String[] names, Import[] imports, Export[] exports) {
+        this.file = file;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.names = names;
+        this.imports = imports;
+        this.exports = exports;
+    }
+
+    public static PackageMetadata read(File file) {
+        long size = file.length();
+        long lastModified = file.lastModified();
+
+        try (UnrealPackage up = Util.openPackage(file, true)) {
+            List<UnrealPackage.NameEntry> nameTable = up.getNameTable();
+            String[] names = new String[nameTable.size()];
+            for (int i = 0; i < names.length; i++)
+                names[i] = nameTable.get(i).getName();
+
+            List<UnrealPackage.ImportEntry> importTable = up.getImportTable();
+            Import[] imports = new Import[importTable.size()];
+            for (int i = 0; i < imports.length; i++) {
+                UnrealPackage.ImportEntry entry = importTable.get(i);
+                imports[i] = new Import(entry.getObjectFullName(), entry.getClassName().getName());
+            }
+
+            List<UnrealPackage.ExportEntry> exportTable = up.getExportTable();
+            Export[] exports = new Export[exportTable.size()];
+            for (int i = 0; i < exports.length; i++) {
+                UnrealPackage.ExportEntry entry = exportTable.get(i);
+                exports[i] = new Export(
+                        i,
+                        entry.getObjectFullName(),
+                        entry.getObjectClass() == null ? "Core.Class" : entry.getObjectClass().getObjectFullName(),
+                        entry.getObjectSuperClass() == null ? null : entry.getObjectSuperClass().getObjectFullName(),
+                        entry.getObjectFlags(),
+                        entry.getSize(),
+                        entry.getOffset());
+            }
+
+            return new PackageMetadata(file, size, lastModified, names, imports, exports);
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public String getPackageName() {
+        return Util.getPackageName(file);
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public boolean isUpToDate() {
+        return file.length() == size && file.lastModified() == lastModified;
+    }
+
+    public String[] getNames() {
+        return names;
+    }
+
+    public Import[] getImports() {
+        return imports;
+    }
+
+    public Export[] getExports() {
+        return exports;
+    }
+
+    public synchronized Map<String, Integer> getClassHistogram() {
+        if (classHistogram == null) {
+            Map<String, Integer> histogram = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (Export export : exports)
+                histogram.merge(export.getClassName(), 1, Integer::sum);
+            classHistogram = Collections.unmodifiableMap(histogram);
+        }
+        return classHistogram;
+    }
+
+    void write(DataOutput output) throws IOException {
+        output.writeUTF(file.getPath());
+        output.writeLong(size);
+        output.writeLong(lastModified);
+
+        output.writeInt(names.length);
+        for (String name : names)
+            output.writeUTF(name);
+
+        output.writeInt(imports.length);
+        for (Import entry : imports) {
+            output.writeUTF(entry.name);
+            output.writeUTF(entry.className);
+        }
+
+        output.writeInt(exports.length);
+        for (Export entry : exports) {
+            output.writeUTF(entry.name);
+            output.writeUTF(entry.className);
+            output.writeUTF(entry.superClassName == null ? "" : entry.superClassName);
+            output.writeInt(entry.flags);
+            output.writeInt(entry.size);
+            output.writeInt(entry.offset);
+        }
+    }
+
+    static PackageMetadata read(DataInput input) throws IOException {
+        File file = new File(input.readUTF());
+        long size = input.readLong();
+        long lastModified = input.readLong();
+
+        String[] names = new String[input.readInt()];
+        for (int i = 0; i < names.length; i++)
+            names[i] = input.readUTF();
+
+        Import[] imports = new Import[input.readInt()];
+        for (int i = 0; i < imports.length; i++)
+            imports[i] = new Import(input.readUTF(), input.readUTF());
+
+        Map<String, String> classNames = new HashMap<>();
+        Export[] exports = new Export[input.readInt()];
+        for (int i = 0; i < exports.length; i++) {
+            String name = input.readUTF();
+            String className = classNames.computeIfAbsent(input.readUTF(), c -> c);
+            String superClassName = input.readUTF();
+            exports[i] = new Export(i, name, className, superClassName.isEmpty() ? null : superClassName, input.readInt(), input.readInt(), input.readInt());
+        }
+
+        return new PackageMetadata(file, size, lastModified, names, imports, exports);
+    }
+
+    public static class Import {
+        private final String name;
+        private final String className;
+
+        public Import(String name, String className) {
+            this.name = name;
+            this.className = className;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+    }
+
+    public static class Export {
+        private final int index;
+        private final String name;
+        private final String className;
+        private final String superClassName;
+        private final int flags;
+        private final int size;
+        private final int offset;
+
+        public Export(int index, String name, String className, String superClassName, int flags, int size, int offset) {
+            this.index = index;
+            this.name = name;
+            this.className = className;
+            this.superClassName = superClassName;
+            this.flags = flags;
+            this.size = size;
+            this.offset = offset;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public String getSuperClassName() {
+            return superClassName;
+        }
+
+        public int getFlags() {
+            return flags;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public int getOffset() {
+            return offset;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
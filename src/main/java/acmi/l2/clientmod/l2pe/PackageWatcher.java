@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.l2pe;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches package folders and reports changed files once a burst of writes settles down.
+ */
+public class PackageWatcher implements Closeable {
+    private static final Logger log = Logger.getLogger(PackageWatcher.class.getName());
+
+    private static final long DELAY = Long.getLong("L2pe.watchDelay", 500);
+
+    private final WatchService watchService;
+    private final Map<WatchKey, File> folders = new HashMap<>();
+    private final Consumer<Changes> listener;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "L2pe Watcher") {{
+        setDaemon(true);
+    }});
+    private final Thread thread;
+
+    private Changes pending = new Changes();
+    private ScheduledFuture<?> flush;
+
+    public PackageWatcher(Collection<File> folders, Consumer<Changes> listener) throws IOException {
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.listener = listener;
+
+        for (File folder : folders) {
+            try {
+                this.folders.put(folder.toPath().register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), folder);
+            } catch (IOException e) {
+                log.log(Level.WARNING, e, () -> "Couldn't watch " + folder);
+            }
+        }
+
+        thread = new Thread(this::run, "L2pe Watcher Events");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                File folder = folders.get(key);
+
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (folder == null)
+                        continue;
+
+                    if (event.kind() == OVERFLOW) {
+                        changed(folder, null);
+                    } else {
+                        changed(folder, new File(folder, event.context().toString()));
+                    }
+                }
+
+                if (!key.reset())
+                    log.fine(() -> "No longer watching " + folder);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ignore) {
+        }
+    }
+
+    private synchronized void changed(File folder, File file) {
+        pending.folders.add(folder);
+        if (file == null)
+            pending.overflow.add(folder);
+        else
+            pending.files.add(file);
+
+        if (flush != null)
+            flush.cancel(false);
+        flush = scheduler.schedule(this::flush, DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush() {
+        Changes changes;
+        synchronized (this) {
+            changes = pending;
+            pending = new Changes();
+            flush = null;
+        }
+
+        log.fine(() -> "Changed: " + changes);
+        try {
+            listener.accept(changes);
+        } catch (Exception e) {
+            log.log(Level.WARNING, e, () -> "Couldn't apply changes: " + changes);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        thread.interrupt();
+        scheduler.shutdownNow();
+        watchService.close();
+    }
+
+    public static class Changes {
+        private final Set<File> folders = new HashSet<>();
+        private final Set<File> overflow = new HashSet<>();
+        private final Set<File> files = new HashSet<>();
+
+        /**
+         * Folders with changes, including overflowed ones.
+         */
+        public Set<File> getFolders() {
+            return folders;
+        }
+
+        /**
+         * Folders that lost events, every file there should be treated as changed.
+         */
+        public Set<File> getOverflow() {
+            return overflow;
+        }
+
+        public Set<File> getFiles() {
+            return files;
+        }
+
+        @Override
+        public String toString() {
+            return overflow.isEmpty() ? files.toString() : files + ", overflow: " + overflow;
+        }
+    }
+}
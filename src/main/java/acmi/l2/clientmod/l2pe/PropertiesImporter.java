@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.l2pe;
+
+import acmi.l2.clientmod.io.UnrealPackage;
+import acmi.l2.clientmod.unreal.UnrealSerializerFactory;
+import acmi.l2.clientmod.unreal.core.Object;
+import acmi.l2.clientmod.unreal.core.Struct;
+import acmi.l2.clientmod.unreal.properties.L2Property;
+
+import java.io.IOException;
+import java.io.LineNumberReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads text written by {@link Decompiler#decompileProperties} back into objects.
+ * Properties missing from the text are left at class defaults, exported sub objects
+ * (Begin Object ... End Object) are matched to existing exports by name and class.
+ */
+public class PropertiesImporter {
+    private static final Pattern BEGIN_OBJECT = Pattern.compile("Begin\\s+Object(.*)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern ATTRIBUTE = Pattern.compile("(\\w+)=(\\S+)");
+
+    private final UnrealSerializerFactory objectFactory;
+
+    public PropertiesImporter(UnrealSerializerFactory objectFactory) {
+        this.objectFactory = objectFactory;
+    }
+
+    /**
+     * @return entry object and its sub objects with replaced properties, sub objects first
+     */
+    public List<Object> read(UnrealPackage.ExportEntry entry, Reader reader) throws IOException {
+        LineNumberReader in = new LineNumberReader(reader);
+        List<Object> objects = new ArrayList<>();
+        try {
+            read(Util.loadObject(objectFactory, entry), in, objects, false);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(entry.getObjectFullName() + ":" + in.getLineNumber() + ": " + e.getMessage(), e);
+        }
+        return objects;
+    }
+
+    private void read(Object object, LineNumberReader in, List<Object> objects, boolean nested) throws IOException {
+        UnrealPackage up = object.entry.getUnrealPackage();
+        Struct struct = PropertyPath.getStruct(object, objectFactory);
+        List<L2Property> properties = new ArrayList<>();
+
+        boolean ended = false;
+        for (String line; (line = in.readLine()) != null; ) {
+            line = line.trim();
+            if (line.isEmpty())
+                continue;
+
+            Matcher begin = BEGIN_OBJECT.matcher(line);
+            if (begin.matches()) {
+                String className = null;
+                String name = null;
+                Matcher attribute = ATTRIBUTE.matcher(begin.group(1));
+                while (attribute.find()) {
+                    if (attribute.group(1).equalsIgnoreCase("Class"))
+                        className = attribute.group(2);
+                    else if (attribute.group(1).equalsIgnoreCase("Name"))
+                        name = attribute.group(2);
+                }
+                if (className == null || name == null)
+                    throw new IllegalArgumentException("Begin Object requires Class and Name");
+
+                read(Util.loadObject(objectFactory, findSubObject(object.entry, className, name)), in, objects, true);
+            } else if (line.equalsIgnoreCase("End Object")) {
+                if (!nested)
+                    throw new IllegalArgumentException("Unexpected End Object");
+                ended = true;
+                break;
+            } else {
+                PropertyValues.parseProperty(properties, struct, line, up, objectFactory);
+            }
+        }
+        if (nested && !ended)
+            throw new IllegalArgumentException("Missing End Object for " + object.entry.getObjectName().getName());
+
+        object.properties.clear();
+        object.properties.addAll(properties);
+        objects.add(object);
+    }
+
+    private static UnrealPackage.ExportEntry findSubObject(UnrealPackage.ExportEntry outer, String className, String name) {
+        String prefix = outer.getObjectFullName().toLowerCase() + ".";
+        UnrealPackage.ExportEntry found = null;
+        for (UnrealPackage.ExportEntry entry : outer.getUnrealPackage().getExportTable()) {
+            if (!entry.getObjectName().getName().equalsIgnoreCase(name) ||
+                    entry.getObjectClass() == null ||
+                    !entry.getObjectClass().getObjectName().getName().equalsIgnoreCase(className))
+                continue;
+
+            if (entry.getObjectFullName().toLowerCase().startsWith(prefix))
+                return entry;
+            if (found == null)
+                found = entry;
+        }
+        if (found == null)
+            throw new IllegalArgumentException("Sub object not found: " + className + " " + name);
+        return found;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.l2pe;
+
+import acmi.l2.clientmod.io.UnrealPackage;
+import acmi.l2.clientmod.unreal.UnrealSerializerFactory;
+import acmi.l2.clientmod.unreal.core.*;
+import acmi.l2.clientmod.unreal.core.Object;
+import acmi.l2.clientmod.unreal.properties.L2Property;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static acmi.l2.clientmod.unreal.UnrealSerializerFactory.IS_STRUCT;
+
+/**
+ * Property[index].StructField[index]..., or Property(index) as printed by {@link Decompiler}.
+ * <p>
+ * Index selects an element of a static array or of a dynamic array (ArrayProperty),
+ * index equal to the array length appends.
+ */
+@SuppressWarnings("unchecked")
+public class PropertyPath {
+    private static final Pattern SEGMENT = Pattern.compile("(\\w+)(?:\\[(\\d+)]|\\((\\d+)\\))?");
+
+    private final String[] names;
+    private final int[] indexes;
+
+    private PropertyPath(String[] names, int[] indexes) {
+        this.names = names;
+        this.indexes = indexes;
+    }
+
+    public static PropertyPath parse(String path) {
+        String[] segments = path.trim().split("\\.");
+        String[] names = new String[segments.length];
+        int[] indexes = new int[segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            Matcher matcher = SEGMENT.matcher(segments[i]);
+            if (!matcher.matches())
+                throw new IllegalArgumentException("Invalid property path: " + path);
+            names[i] = matcher.group(1);
+            String index = matcher.group(2) != null ? matcher.group(2) : matcher.group(3);
+            indexes[i] = index == null ? -1 : Integer.parseInt(index);
+        }
+        return new PropertyPath(names, indexes);
+    }
+
+    public String getName() {
+        return names[0];
+    }
+
+    public void set(Object object, String value, UnrealSerializerFactory objectFactory) {
+        UnrealPackage up = object.entry.getUnrealPackage();
+        set(object.properties, getStruct(object, objectFactory), value, up, objectFactory);
+    }
+
+    private void set(List<L2Property> properties, Struct struct, String value, UnrealPackage up, UnrealSerializerFactory objectFactory) {
+        for (int i = 0; ; i++) {
+            L2Property property = getOrCreate(properties, struct, names[i], objectFactory);
+            Property template = property.getTemplate();
+            boolean last = i == names.length - 1;
+
+            if (template instanceof ArrayProperty) {
+                if (indexes[i] < 0 && last) {
+                    property.putAt(0, PropertyValues.parse(template, value, up, objectFactory));
+                    return;
+                }
+                if (indexes[i] < 0)
+                    throw new IllegalArgumentException(names[i] + " is a dynamic array, index required");
+                Property inner = ((ArrayProperty) template).inner;
+                List<java.lang.Object> list = property.getAt(0) == null ? new ArrayList<>() : new ArrayList<>((List<java.lang.Object>) property.getAt(0));
+                if (indexes[i] > list.size())
+                    throw new IllegalArgumentException(names[i] + "[" + indexes[i] + "] out of bounds, length " + list.size());
+                if (indexes[i] == list.size())
+                    list.add(last ? null : new ArrayList<L2Property>());
+                property.putAt(0, list);
+
+                if (last) {
+                    list.set(indexes[i], PropertyValues.parse(inner, value, up, objectFactory));
+                    return;
+                }
+                properties = struct(list, indexes[i], inner, names[i]);
+                struct = ((StructProperty) inner).struct;
+            } else {
+                int index = Math.max(0, indexes[i]);
+                if (index >= template.arrayDimension)
+                    throw new IllegalArgumentException(names[i] + "[" + index + "] out of bounds, length " + template.arrayDimension);
+
+                if (last) {
+                    property.putAt(index, PropertyValues.parse(template, value, up, objectFactory));
+                    return;
+                }
+                if (!(template instanceof StructProperty))
+                    throw new IllegalArgumentException(names[i] + " is not a struct");
+                List<L2Property> fields = property.getAt(index) == null ? new ArrayList<>() : new ArrayList<>((List<L2Property>) property.getAt(index));
+                property.putAt(index, fields);
+                properties = fields;
+                struct = ((StructProperty) template).struct;
+            }
+        }
+    }
+
+    private static List<L2Property> struct(List<java.lang.Object> list, int index, Property inner, String name) {
+        if (!(inner instanceof StructProperty))
+            throw new IllegalArgumentException(name + " is not an array of structs");
+        List<L2Property> fields = list.get(index) == null ? new ArrayList<>() : new ArrayList<>((List<L2Property>) list.get(index));
+        list.set(index, fields);
+        return fields;
+    }
+
+    private static L2Property getOrCreate(List<L2Property> properties, Struct struct, String name, UnrealSerializerFactory objectFactory) {
+        for (L2Property property : properties)
+            if (property.getName().equalsIgnoreCase(name))
+                return property;
+
+        L2Property property = new L2Property(findTemplate(struct, name, objectFactory));
+        properties.add(property);
+        return property;
+    }
+
+    static Struct getStruct(Object object, UnrealSerializerFactory objectFactory) {
+        UnrealPackage.ExportEntry entry = object.entry;
+        String className = entry.getObjectClass() == null ?
+                entry.getObjectSuperClass().getObjectFullName() :
+                entry.getFullClassName();
+        return (Struct) objectFactory.getOrCreateObject(className, IS_STRUCT);
+    }
+
+    static Property findTemplate(Struct struct, String name, UnrealSerializerFactory objectFactory) {
+        for (Struct s = struct; s != null; ) {
+            for (Field field = s.child; field != null; field = field.next)
+                if (field instanceof Property && field.entry.getObjectName().getName().equalsIgnoreCase(name))
+                    return (Property) field;
+
+            UnrealPackage.Entry superStruct = s.entry.getObjectSuperClass();
+            s = superStruct == null ? null : (Struct) objectFactory.getOrCreateObject(superStruct.getObjectFullName(), IS_STRUCT);
+        }
+        throw new IllegalArgumentException("Property not found: " + struct.entry.getObjectFullName() + "." + name);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0)
+                sb.append('.');
+            sb.append(names[i]);
+            if (indexes[i] >= 0)
+                sb.append('[').append(indexes[i]).append(']');
+        }
+        return sb.toString();
+    }
+}
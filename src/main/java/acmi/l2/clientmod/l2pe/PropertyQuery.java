@@ -0,0 +1,750 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.l2pe;
+
+import acmi.l2.clientmod.io.UnrealPackage;
+import acmi.l2.clientmod.unreal.UnrealSerializerFactory;
+import acmi.l2.clientmod.unreal.core.*;
+import acmi.l2.clientmod.unreal.core.Object;
+import acmi.l2.clientmod.unreal.properties.L2Property;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.locks.Lock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static acmi.l2.clientmod.unreal.UnrealSerializerFactory.IS_STRUCT;
+
+/**
+ * {@code [Class:] predicate} over export properties, e.g.
+ * <pre>
+ * Emitter: MaxParticles > 500
+ * Engine.Texture: USize >= 2048 || VSize >= 2048
+ * StaticMeshActor: !(DrawScale = 1.0) && Skins[0] ~ 'Rock'
+ * Emitter: #Emitters > 4
+ * </pre>
+ * Paths are property names as printed by {@link Decompiler}, {@code Name[i].Field} or {@code Name(i).Field}.
+ * Without an index every element of an array is tried. {@code #Path} is the length of a dynamic array.
+ * Operators: {@code = != < <= > >=} compare numbers numerically and anything else as text ignoring case,
+ * {@code ~} is a case insensitive substring match, a path alone is true when the value is not zero/empty/None.
+ * Missing properties have their class default value. Class matches subclasses, by name or full name.
+ */
+@SuppressWarnings("unchecked")
+public class PropertyQuery {
+    private static final Logger log = Logger.getLogger(PropertyQuery.class.getName());
+
+    private static final int SPLIT_THRESHOLD = Integer.getInteger("L2pe.querySplit", 256);
+
+    private final String className;
+    private final Node predicate;
+    private final List<Path> paths;
+
+    private PropertyQuery(String className, Node predicate, List<Path> paths) {
+        this.className = className;
+        this.predicate = predicate;
+        this.paths = paths;
+    }
+
+    public static PropertyQuery parse(String query) {
+        Parser parser = new Parser(tokenize(query));
+        String className = null;
+        if (parser.tokens.size() >= 2 && parser.tokens.get(1).equals(":")) {
+            className = parser.next();
+            parser.next();
+        }
+        Node predicate = parser.atEnd() ? ctx -> true : parser.or();
+        if (!parser.atEnd())
+            throw new IllegalArgumentException("Unexpected '" + parser.peek() + "' in " + query);
+        return new PropertyQuery(className, predicate, parser.paths);
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * Class filter only, uses the export table.
+     */
+    public boolean matchesClass(String exportClassName, UnrealSerializerFactory objectFactory, Map<String, Boolean> cache) {
+        if (exportClassName == null)
+            return false;
+        if (className == null)
+            return !exportClassName.equalsIgnoreCase("Core.Class");
+        return isSubclass(exportClassName, className, objectFactory, cache);
+    }
+
+    /**
+     * @param className Package.Class or Class
+     * @param cache     results by export class, for one {@code className} and factory
+     */
+    static boolean isSubclass(String exportClassName, String className, UnrealSerializerFactory objectFactory, Map<String, Boolean> cache) {
+        return cache.computeIfAbsent(exportClassName.toLowerCase(), key -> {
+            for (String name = exportClassName; name != null; ) {
+                if (name.equalsIgnoreCase(className) || name.substring(name.lastIndexOf('.') + 1).equalsIgnoreCase(className))
+                    return true;
+                if (name.equalsIgnoreCase("Core.Class"))
+                    return false;
+                try {
+                    UnrealPackage.Entry superClass = ((Struct) objectFactory.getOrCreateObject(name, IS_STRUCT)).entry.getObjectSuperClass();
+                    name = superClass == null ? null : superClass.getObjectFullName();
+                } catch (Exception e) {
+                    return false;
+                }
+            }
+            return false;
+        });
+    }
+
+    public boolean test(Object object, UnrealSerializerFactory objectFactory) {
+        return predicate.test(new Context(object, objectFactory));
+    }
+
+    /**
+     * @return paths used by the predicate with their values, e.g. {@code MaxParticles=800}
+     */
+    public String describe(Object object, UnrealSerializerFactory objectFactory) {
+        Context ctx = new Context(object, objectFactory);
+        StringBuilder sb = new StringBuilder();
+        for (Path path : paths) {
+            if (sb.length() > 0)
+                sb.append(", ");
+            sb.append(path).append('=');
+            List<Value> values = ctx.resolve(path);
+            if (path.length)
+                sb.append(values.size());
+            else if (values.size() == 1)
+                sb.append(values.get(0).text());
+            else
+                values.stream().map(Value::text).reduce((a, b) -> a + "," + b).ifPresent(v -> sb.append('(').append(v).append(')'));
+        }
+        return sb.toString();
+    }
+
+    public List<String> scan(List<File> packages, SerializerFactoryPool factories, MetadataCache metadataCache,
+                             Consumer<Match> results, BooleanSupplier cancelled) {
+        return scan(packages, factories, metadataCache, file -> null, results, cancelled);
+    }
+
+    /**
+     * Matches are passed to {@code results} from worker threads as soon as they are found.
+     *
+     * @param readLocks lock held while a package is read, null if none
+     * @return failures
+     */
+    public List<String> scan(List<File> packages, SerializerFactoryPool factories, MetadataCache metadataCache,
+                             Function<File, Lock> readLocks, Consumer<Match> results, BooleanSupplier cancelled) {
+        Map<String, Boolean> classes = new ConcurrentHashMap<>();
+        List<String> failures = Collections.synchronizedList(new ArrayList<>());
+
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    List<PackageTask> tasks = new ArrayList<>(packages.size());
+                    for (File file : packages)
+                        tasks.add(new PackageTask(file, factories, metadataCache, readLocks.apply(file), classes, results, failures, cancelled));
+                    invokeAll(tasks);
+                }
+            });
+        } finally {
+            pool.shutdown();
+        }
+        return failures;
+    }
+
+    private class PackageTask extends RecursiveAction {
+        private final File file;
+        private final SerializerFactoryPool factories;
+        private final MetadataCache metadataCache;
+        private final Lock lock;
+        private final Map<String, Boolean> classes;
+        private final Consumer<Match> results;
+        private final List<String> failures;
+        private final BooleanSupplier cancelled;
+
+        PackageTask(File file, SerializerFactoryPool factories, MetadataCache metadataCache, Lock lock, Map<String, Boolean> classes,
+                    Consumer<Match> results, List<String> failures, BooleanSupplier cancelled) {
+            this.file = file;
+            this.factories = factories;
+            this.metadataCache = metadataCache;
+            this.lock = lock;
+            this.classes = classes;
+            this.results = results;
+            this.failures = failures;
+            this.cancelled = cancelled;
+        }
+
+        @Override
+        protected void compute() {
+            if (cancelled.getAsBoolean())
+                return;
+
+            if (lock != null)
+                lock.lock();
+            try {
+                scan();
+            } finally {
+                if (lock != null)
+                    lock.unlock();
+            }
+        }
+
+        private void scan() {
+            int[] indexes;
+            try {
+                UnrealSerializerFactory factory = factories.get();
+                PackageMetadata.Export[] exports = metadataCache.get(file).getExports();
+                indexes = new int[exports.length];
+                int n = 0;
+                for (int i = 0; i < exports.length; i++)
+                    if (matchesClass(exports[i].getClassName(), factory, classes))
+                        indexes[n++] = i;
+                indexes = Arrays.copyOf(indexes, n);
+            } catch (Exception e) {
+                failures.add(file + ": " + e);
+                return;
+            }
+            if (indexes.length == 0)
+                return;
+
+            try (UnrealPackage up = Util.openPackage(file, true)) {
+                List<ExportsTask> tasks = new ArrayList<>();
+                for (int from = 0; from < indexes.length; from += SPLIT_THRESHOLD)
+                    tasks.add(new ExportsTask(this, up, Arrays.copyOfRange(indexes, from, Math.min(indexes.length, from + SPLIT_THRESHOLD))));
+                invokeAll(tasks);
+            } catch (Exception e) {
+                failures.add(file + ": " + e);
+            }
+        }
+    }
+
+    private class ExportsTask extends RecursiveAction {
+        private final PackageTask pkg;
+        private final UnrealPackage up;
+        private final int[] indexes;
+
+        ExportsTask(PackageTask pkg, UnrealPackage up, int[] indexes) {
+            this.pkg = pkg;
+            this.up = up;
+            this.indexes = indexes;
+        }
+
+        @Override
+        protected void compute() {
+            UnrealSerializerFactory factory = pkg.factories.get();
+            long weight = 0;
+            for (int i : indexes) {
+                if (pkg.cancelled.getAsBoolean())
+                    break;
+
+                UnrealPackage.ExportEntry entry = up.getExportTable().get(i);
+                weight += Math.max(entry.getSize(), 0);
+                try {
+                    Object object = Util.loadObject(factory, entry);
+                    if (test(object, factory))
+                        pkg.results.accept(new Match(pkg.file, i, entry.getObjectFullName(), entry.getFullClassName(), describe(object, factory)));
+                } catch (Exception e) {
+                    pkg.failures.add(entry.getObjectFullName() + ": " + e);
+                }
+            }
+            pkg.factories.release(weight);
+        }
+    }
+
+    public static class Match extends ExportIndex.Hit {
+        private final String values;
+
+        Match(File file, int exportIndex, String name, String className, String values) {
+            super(file, exportIndex, name, className);
+            this.values = values;
+        }
+
+        public String getValues() {
+            return values;
+        }
+
+        @Override
+        public String toString() {
+            return values.isEmpty() ? super.toString() : super.toString() + " " + values;
+        }
+    }
+
+    private interface Node {
+        boolean test(Context ctx);
+    }
+
+    private static class Path {
+        final String[] names;
+        final int[] indexes;
+        final boolean length;
+
+        Path(String[] names, int[] indexes, boolean length) {
+            this.names = names;
+            this.indexes = indexes;
+            this.length = length;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(length ? "#" : "");
+            for (int i = 0; i < names.length; i++) {
+                if (i > 0)
+                    sb.append('.');
+                sb.append(names[i]);
+                if (indexes[i] >= 0)
+                    sb.append('[').append(indexes[i]).append(']');
+            }
+            return sb.toString();
+        }
+    }
+
+    private static class Value {
+        final Property template;
+        final java.lang.Object value;
+        final UnrealPackage up;
+        final UnrealSerializerFactory objectFactory;
+
+        Value(Property template, java.lang.Object value, UnrealPackage up, UnrealSerializerFactory objectFactory) {
+            this.template = template;
+            this.value = value;
+            this.up = up;
+            this.objectFactory = objectFactory;
+        }
+
+        Double number() {
+            if (template instanceof ByteProperty && ((ByteProperty) template).enumType != null)
+                return null;
+            if (template instanceof IntProperty || template instanceof ByteProperty)
+                return value == null ? 0.0 : ((Integer) value).doubleValue();
+            if (template instanceof FloatProperty)
+                return value == null ? 0.0 : ((Float) value).doubleValue();
+            if (template instanceof BoolProperty)
+                return value != null && (Boolean) value ? 1.0 : 0.0;
+            return null;
+        }
+
+        String text() {
+            if (template instanceof ByteProperty && ((ByteProperty) template).enumType != null)
+                return String.valueOf(((ByteProperty) template).enumType.values[value == null ? 0 : (Integer) value]);
+            if (template instanceof FloatProperty)
+                return Decompiler.formatFloat(value == null ? 0f : (Float) value);
+            if (template instanceof BoolProperty)
+                return String.valueOf(value != null && (Boolean) value);
+            if (template instanceof IntProperty || template instanceof ByteProperty)
+                return String.valueOf(value == null ? 0 : value);
+            if (template instanceof ObjectProperty) {
+                UnrealPackage.Entry entry = value == null ? null : up.objectReference((Integer) value);
+                return entry == null ? "None" : entry.getObjectFullName();
+            }
+            if (template instanceof NameProperty) {
+                if (value == null)
+                    return "None";
+                return value instanceof Integer ? up.nameReference((Integer) value) : value.toString();
+            }
+            if (template instanceof StrProperty)
+                return value == null ? "" : value.toString();
+            if (template instanceof StructProperty)
+                return value == null ? "()" : Decompiler.inlineStruct((List<L2Property>) value, up, objectFactory).toString();
+            if (template instanceof ArrayProperty) {
+                L2Property property = new L2Property(template);
+                property.putAt(0, value == null ? Collections.emptyList() : value);
+                return Decompiler.inlineProperty(property, up, objectFactory, true).toString();
+            }
+            return String.valueOf(value);
+        }
+
+        boolean isZero() {
+            Double number = number();
+            if (number != null)
+                return number == 0;
+            if (value == null)
+                return true;
+            if (template instanceof ArrayProperty)
+                return ((List) value).isEmpty();
+            if (template instanceof StructProperty)
+                return false;
+            String text = text();
+            return text.isEmpty() || text.equalsIgnoreCase("None");
+        }
+
+        boolean textEquals(String literal) {
+            String text = text();
+            if (text.equalsIgnoreCase(literal))
+                return true;
+            if (template instanceof ObjectProperty) {
+                // Class'Name' and short names, as the decompiler prints exports of the same package
+                Matcher matcher = OBJECT.matcher(literal);
+                String name = matcher.matches() ? matcher.group(1) : literal;
+                return text.equalsIgnoreCase(name) || text.substring(text.lastIndexOf('.') + 1).equalsIgnoreCase(name);
+            }
+            return false;
+        }
+    }
+
+    private static final Pattern OBJECT = Pattern.compile("\\w+'(.*)'");
+
+    private static class Context {
+        final Object object;
+        final UnrealSerializerFactory objectFactory;
+        final UnrealPackage up;
+        Struct struct;
+
+        Context(Object object, UnrealSerializerFactory objectFactory) {
+            this.object = object;
+            this.objectFactory = objectFactory;
+            this.up = object.entry.getUnrealPackage();
+        }
+
+        Struct struct() {
+            if (struct == null)
+                struct = PropertyPath.getStruct(object, objectFactory);
+            return struct;
+        }
+
+        List<Value> resolve(Path path) {
+            List<Value> values = new ArrayList<>();
+            Found root = property(path.names[0]);
+            if (root != null)
+                resolve(path, 0, root.property.getTemplate(), root.property::getAt, root.up, values);
+            return values;
+        }
+
+        /**
+         * Static array index of the segment, then dynamic array index.
+         */
+        private void resolve(Path path, int depth, Property template, IntFunction<java.lang.Object> values, UnrealPackage up, List<Value> out) {
+            int index = path.indexes[depth];
+            if (template instanceof ArrayProperty || template.arrayDimension == 1) {
+                element(path, depth, template, values.apply(0), up, out);
+            } else if (index >= 0) {
+                if (index < template.arrayDimension)
+                    element(path, depth, template, values.apply(index), up, out);
+            } else {
+                for (int i = 0; i < template.arrayDimension; i++)
+                    element(path, depth, template, values.apply(i), up, out);
+            }
+        }
+
+        private void element(Path path, int depth, Property template, java.lang.Object value, UnrealPackage up, List<Value> out) {
+            boolean last = depth == path.names.length - 1;
+
+            if (template instanceof ArrayProperty) {
+                Property inner = ((ArrayProperty) template).inner;
+                List<java.lang.Object> list = value == null ? Collections.emptyList() : (List<java.lang.Object>) value;
+                int index = path.indexes[depth];
+                if (last && path.length && index < 0) {
+                    for (java.lang.Object item : list)
+                        out.add(new Value(inner, item, up, objectFactory));
+                    return;
+                }
+                if (index >= 0) {
+                    if (index < list.size())
+                        descend(path, depth, inner, list.get(index), up, out);
+                } else {
+                    for (java.lang.Object item : list)
+                        descend(path, depth, inner, item, up, out);
+                }
+                return;
+            }
+            descend(path, depth, template, value, up, out);
+        }
+
+        private void descend(Path path, int depth, Property template, java.lang.Object value, UnrealPackage up, List<Value> out) {
+            if (depth == path.names.length - 1) {
+                out.add(new Value(template, value, up, objectFactory));
+                return;
+            }
+            if (!(template instanceof StructProperty))
+                return;
+
+            String name = path.names[depth + 1];
+            L2Property field = null;
+            if (value != null)
+                for (L2Property p : (List<L2Property>) value)
+                    if (p.getName().equalsIgnoreCase(name))
+                        field = p;
+
+            if (field == null) {
+                try {
+                    field = new L2Property(PropertyPath.findTemplate(((StructProperty) template).struct, name, objectFactory));
+                } catch (IllegalArgumentException e) {
+                    return;
+                }
+            }
+            resolve(path, depth + 1, field.getTemplate(), field::getAt, up, out);
+        }
+
+        /**
+         * @return property of the object or of the class defaults, zero property if only the template exists
+         */
+        private Found property(String name) {
+            for (L2Property property : object.properties)
+                if (property.getName().equalsIgnoreCase(name))
+                    return new Found(property, up);
+
+            for (Struct s = struct(); s != null; ) {
+                for (L2Property property : s.properties)
+                    if (property.getName().equalsIgnoreCase(name))
+                        return new Found(property, s.entry.getUnrealPackage());
+                UnrealPackage.Entry superStruct = s.entry.getObjectSuperClass();
+                s = superStruct == null ? null : (Struct) objectFactory.getOrCreateObject(superStruct.getObjectFullName(), IS_STRUCT);
+            }
+
+            try {
+                return new Found(new L2Property(PropertyPath.findTemplate(struct(), name, objectFactory)), up);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+
+    private static class Found {
+        final L2Property property;
+        final UnrealPackage up;
+
+        Found(L2Property property, UnrealPackage up) {
+            this.property = property;
+            this.up = up;
+        }
+    }
+
+    private static class Comparison implements Node {
+        final Path path;
+        final String op;
+        final String literal;
+        final Double number;
+
+        Comparison(Path path, String op, String literal) {
+            this.path = path;
+            this.op = op;
+            this.literal = literal;
+            Double number;
+            try {
+                number = Double.parseDouble(literal);
+            } catch (NumberFormatException e) {
+                number = null;
+            }
+            this.number = number;
+        }
+
+        @Override
+        public boolean test(Context ctx) {
+            List<Value> values = ctx.resolve(path);
+            if (path.length)
+                return compare(values.size());
+
+            if (op.equals("!="))
+                return values.stream().noneMatch(v -> matches(v, "="));
+            for (Value value : values)
+                if (matches(value, op))
+                    return true;
+            return false;
+        }
+
+        private boolean compare(double value) {
+            return compare(Double.compare(value, number), op);
+        }
+
+        private boolean matches(Value value, String op) {
+            if (op.equals("~"))
+                return value.text().toLowerCase().contains(literal.toLowerCase());
+
+            Double v = value.number();
+            if (v != null && number != null)
+                return compare(Double.compare(v, number), op);
+            if (op.equals("="))
+                return value.textEquals(literal);
+            return compare(value.text().compareToIgnoreCase(literal), op);
+        }
+
+        private static boolean compare(int c, String op) {
+            switch (op) {
+                case "=":
+                    return c == 0;
+                case "!=":
+                    return c != 0;
+                case "<":
+                    return c < 0;
+                case "<=":
+                    return c <= 0;
+                case ">":
+                    return c > 0;
+                case ">=":
+                    return c >= 0;
+                default:
+                    throw new IllegalArgumentException("Unknown operator: " + op);
+            }
+        }
+    }
+
+    private static final Pattern INDEX = Pattern.compile("(\\w+)(?:[\\[(](\\d+)[\\])])?");
+    private static final Set<String> OPERATORS = new HashSet<>(Arrays.asList("=", "==", "!=", "<", "<=", ">", ">=", "~"));
+
+    static List<String> tokenize(String query) {
+        List<String> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < query.length()) {
+            char c = query.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '"' || c == '\'') {
+                int end = query.indexOf(c, i + 1);
+                if (end < 0)
+                    throw new IllegalArgumentException("Unterminated string: " + query.substring(i));
+                tokens.add(query.substring(i, end + 1));
+                i = end + 1;
+            } else if (query.startsWith("&&", i) || query.startsWith("||", i) || query.startsWith("<=", i) ||
+                    query.startsWith(">=", i) || query.startsWith("!=", i) || query.startsWith("==", i)) {
+                tokens.add(query.substring(i, i + 2));
+                i += 2;
+            } else if ("()!<>=~:#".indexOf(c) >= 0) {
+                tokens.add(String.valueOf(c));
+                i++;
+            } else {
+                int start = i;
+                while (i < query.length()) {
+                    char w = query.charAt(i);
+                    if (Character.isLetterOrDigit(w) || "_.-+[]".indexOf(w) >= 0) {
+                        i++;
+                    } else if (w == '(' && i > start && Character.isLetterOrDigit(query.charAt(i - 1)) && query.indexOf(')', i) > i + 1 &&
+                            query.substring(i + 1, query.indexOf(')', i)).chars().allMatch(Character::isDigit)) {
+                        i = query.indexOf(')', i) + 1;
+                    } else if (w == '\'' && i > start) {
+                        int end = query.indexOf('\'', i + 1);
+                        if (end < 0)
+                            throw new IllegalArgumentException("Unterminated string: " + query.substring(i));
+                        i = end + 1;
+                    } else {
+                        break;
+                    }
+                }
+                if (i == start)
+                    throw new IllegalArgumentException("Unexpected '" + c + "' in " + query);
+                tokens.add(query.substring(start, i));
+            }
+        }
+        return tokens;
+    }
+
+    private static class Parser {
+        final List<String> tokens;
+        final List<Path> paths = new ArrayList<>();
+        int pos;
+
+        Parser(List<String> tokens) {
+            this.tokens = tokens;
+        }
+
+        boolean atEnd() {
+            return pos >= tokens.size();
+        }
+
+        String peek() {
+            return atEnd() ? null : tokens.get(pos);
+        }
+
+        String next() {
+            if (atEnd())
+                throw new IllegalArgumentException("Unexpected end of query");
+            return tokens.get(pos++);
+        }
+
+        Node or() {
+            Node left = and();
+            while ("||".equals(peek())) {
+                next();
+                Node l = left, r = and();
+                left = ctx -> l.test(ctx) || r.test(ctx);
+            }
+            return left;
+        }
+
+        Node and() {
+            Node left = unary();
+            while ("&&".equals(peek())) {
+                next();
+                Node l = left, r = unary();
+                left = ctx -> l.test(ctx) && r.test(ctx);
+            }
+            return left;
+        }
+
+        Node unary() {
+            String token = next();
+            if (token.equals("!")) {
+                Node node = unary();
+                return ctx -> !node.test(ctx);
+            }
+            if (token.equals("(")) {
+                Node node = or();
+                if (!")".equals(next()))
+                    throw new IllegalArgumentException("')' expected");
+                return node;
+            }
+
+            boolean length = token.equals("#");
+            Path path = path(length ? next() : token, length);
+            paths.add(path);
+
+            if (OPERATORS.contains(peek())) {
+                String op = next();
+                Comparison comparison = new Comparison(path, op.equals("==") ? "=" : op, unquote(next()));
+                if (length && (comparison.number == null || op.equals("~")))
+                    throw new IllegalArgumentException(path + " is a number, expected " + path + " " + op + " <number>: " + comparison.literal);
+                return comparison;
+            }
+            if (length)
+                return new Comparison(path, ">", "0");
+            return ctx -> ctx.resolve(path).stream().anyMatch(v -> !v.isZero());
+        }
+
+        Path path(String token, boolean length) {
+            String[] segments = token.split("\\.");
+            String[] names = new String[segments.length];
+            int[] indexes = new int[segments.length];
+            for (int i = 0; i < segments.length; i++) {
+                Matcher matcher = INDEX.matcher(segments[i]);
+                if (!matcher.matches())
+                    throw new IllegalArgumentException("Invalid property path: " + token);
+                names[i] = matcher.group(1);
+                indexes[i] = matcher.group(2) == null ? -1 : Integer.parseInt(matcher.group(2));
+            }
+            return new Path(names, indexes, length);
+        }
+
+        static String unquote(String s) {
+            if (s.length() >= 2 && (s.charAt(0) == '"' || s.charAt(0) == '\'') && s.charAt(s.length() - 1) == s.charAt(0))
+                return s.substring(1, s.length() - 1);
+            return s;
+        }
+    }
+}
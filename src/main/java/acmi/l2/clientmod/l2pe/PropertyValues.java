@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.l2pe;
+
+import acmi.l2.clientmod.io.UnrealPackage;
+import acmi.l2.clientmod.unreal.core.*;
+import acmi.l2.clientmod.unreal.UnrealSerializerFactory;
+import acmi.l2.clientmod.unreal.core.Enum;
+import acmi.l2.clientmod.unreal.properties.L2Property;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses values the way {@link Decompiler} prints them, references are resolved against the package.
+ */
+public class PropertyValues {
+    public static java.lang.Object parse(Property template, String text, UnrealPackage up, UnrealSerializerFactory objectFactory) {
+        text = text.trim();
+        try {
+            if (template instanceof StructProperty) {
+                return text.equalsIgnoreCase("None") ? null : parseStruct(((StructProperty) template).struct, text, up, objectFactory);
+            } else if (template instanceof ArrayProperty) {
+                Property inner = ((ArrayProperty) template).inner;
+                List<java.lang.Object> list = new ArrayList<>();
+                for (String item : split(unwrap(text)))
+                    list.add(parse(inner, item, up, objectFactory));
+                return list;
+            } else if (template instanceof IntProperty) {
+                return Integer.parseInt(text);
+            } else if (template instanceof ByteProperty) {
+                Enum en = ((ByteProperty) template).enumType;
+                if (en != null) {
+                    for (int i = 0; i < en.values.length; i++)
+                        if (String.valueOf(en.values[i]).equalsIgnoreCase(text))
+                            return i;
+                }
+                int value = Integer.parseInt(text);
+                if (value < 0 || value > 255)
+                    throw new IllegalArgumentException("Byte out of range: " + text);
+                return value;
+            } else if (template instanceof FloatProperty) {
+                return Float.parseFloat(text);
+            } else if (template instanceof BoolProperty) {
+                if (text.equalsIgnoreCase("true"))
+                    return true;
+                if (text.equalsIgnoreCase("false"))
+                    return false;
+                throw new IllegalArgumentException("Not a bool: " + text);
+            } else if (template instanceof StrProperty) {
+                return unquote(text);
+            } else if (template instanceof NameProperty) {
+                String name = unquote(text);
+                int index = up.nameReference(name);
+                if (index < 0 && name.matches("\\d+") && Integer.parseInt(name) < up.getNameTable().size())
+                    index = Integer.parseInt(name);
+                if (index < 0)
+                    throw new IllegalArgumentException("Name not found in " + up.getPackageName() + ": " + name);
+                return index;
+            } else if (template instanceof ObjectProperty) {
+                if (text.equalsIgnoreCase("None"))
+                    return 0;
+                String name = unquote(objectName(text));
+                int index = up.objectReferenceByName(name, c -> true);
+                if (index == 0)
+                    index = up.objectReferenceByName(up.getPackageName() + "." + name, c -> true);
+                if (index == 0)
+                    throw new IllegalArgumentException("Object not found in " + up.getPackageName() + ": " + name);
+                return index;
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: " + text, e);
+        }
+        throw new IllegalArgumentException(template.getClass().getSimpleName() + " value can't be parsed: " + text);
+    }
+
+    /**
+     * (Field=value,Array(1)=value,...)
+     */
+    public static List<L2Property> parseStruct(Struct struct, String text, UnrealPackage up, UnrealSerializerFactory objectFactory) {
+        List<L2Property> fields = new ArrayList<>();
+        for (String item : split(unwrap(text)))
+            parseProperty(fields, struct, item, up, objectFactory);
+        return fields;
+    }
+
+    /**
+     * Name=value or Name(index)=value, index selects a static array element or a dynamic array element
+     */
+    public static void parseProperty(List<L2Property> properties, Struct struct, String text, UnrealPackage up, UnrealSerializerFactory objectFactory) {
+        int eq = text.indexOf('=');
+        if (eq < 0)
+            throw new IllegalArgumentException("Expected Name=value: " + text);
+
+        String name = text.substring(0, eq).trim();
+        int index = 0;
+        int bracket = name.indexOf('(');
+        if (bracket > 0 && name.endsWith(")")) {
+            index = Integer.parseInt(name.substring(bracket + 1, name.length() - 1).trim());
+            name = name.substring(0, bracket).trim();
+        }
+        String value = text.substring(eq + 1);
+
+        L2Property property = null;
+        for (L2Property p : properties)
+            if (p.getName().equalsIgnoreCase(name))
+                property = p;
+        if (property == null) {
+            property = new L2Property(PropertyPath.findTemplate(struct, name, objectFactory));
+            properties.add(property);
+        }
+
+        Property template = property.getTemplate();
+        if (template instanceof ArrayProperty) {
+            @SuppressWarnings("unchecked")
+            List<java.lang.Object> list = property.getAt(0) == null ? new ArrayList<>() : (List<java.lang.Object>) property.getAt(0);
+            if (index != list.size())
+                throw new IllegalArgumentException(name + "(" + index + ") out of order, expected " + list.size());
+            list.add(parse(((ArrayProperty) template).inner, value, up, objectFactory));
+            property.putAt(0, list);
+        } else {
+            if (index >= template.arrayDimension)
+                throw new IllegalArgumentException(name + "(" + index + ") out of bounds, length " + template.arrayDimension);
+            property.putAt(index, parse(template, value, up, objectFactory));
+        }
+    }
+
+    private static String unwrap(String text) {
+        text = text.trim();
+        if (!text.startsWith("(") || !text.endsWith(")"))
+            throw new IllegalArgumentException("Expected (...): " + text);
+        return text.substring(1, text.length() - 1);
+    }
+
+    /**
+     * Splits on commas outside of parentheses and quotes.
+     */
+    static List<String> split(String text) {
+        List<String> items = new ArrayList<>();
+        int depth = 0;
+        char quote = 0;
+        int from = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quote != 0) {
+                if (c == quote)
+                    quote = 0;
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                items.add(text.substring(from, i));
+                from = i + 1;
+            }
+        }
+        if (quote != 0 || depth != 0)
+            throw new IllegalArgumentException("Unbalanced: " + text);
+        if (from < text.length() || !items.isEmpty())
+            items.add(text.substring(from));
+        return items;
+    }
+
+    /**
+     * Class'Package.Name' -> Package.Name
+     */
+    static String objectName(String text) {
+        int quote = text.indexOf('\'');
+        if (quote > 0 && text.endsWith("'"))
+            return text.substring(quote + 1, text.length() - 1);
+        return text;
+    }
+
+    static String unquote(String text) {
+        if (text.length() >= 2 && (text.startsWith("\"") && text.endsWith("\"") || text.startsWith("'") && text.endsWith("'")))
+            return text.substring(1, text.length() - 1);
+        return text;
+    }
+}
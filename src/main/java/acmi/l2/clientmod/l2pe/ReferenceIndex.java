@@ -0,0 +1,516 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.l2pe;
+
+import acmi.l2.clientmod.io.UnrealPackage;
+import acmi.l2.clientmod.unreal.UnrealSerializerFactory;
+import acmi.l2.clientmod.unreal.core.ArrayProperty;
+import acmi.l2.clientmod.unreal.core.ObjectProperty;
+import acmi.l2.clientmod.unreal.core.Property;
+import acmi.l2.clientmod.unreal.core.StructProperty;
+import acmi.l2.clientmod.unreal.properties.L2Property;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Who references an object: exports pointing at it from object properties (also inside arrays and structs)
+ * and packages importing it.
+ * Targets are sorted full names, sources of target {@code i} are {@code [offsets[i], offsets[i + 1])}
+ * in the parallel {@code sourceFiles}/{@code sourceExports} arrays.
+ * Packages updated later go to an overlay that masks their old sources, the arrays are rebuilt
+ * once it holds {@code L2pe.referenceOverlay} packages.
+ * Packages and exports that couldn't be read are kept as failures, their references are unknown.
+ * Per package references are kept in {@code cacheDir}, valid while package size and modification time match.
+ * Immutable, updates produce a new index.
+ */
+public class ReferenceIndex {
+    private static final Logger log = Logger.getLogger(ReferenceIndex.class.getName());
+
+    public static final int IMPORT = -1;
+
+    private static final int MAGIC = 0x4C325052;
+    private static final int VERSION = 2;
+
+    private static final int MAX_OVERLAY = Integer.getInteger("L2pe.referenceOverlay", 32);
+
+    private final Map<File, PackageReferences> packages;
+    private final File[] files;
+    private final String[] targets;
+    private final int[] offsets;
+    private final int[] sourceFiles;
+    private final int[] sourceExports;
+    private final int[] fileRefs;
+
+    private final boolean[] masked;
+    private final Map<File, PackageReferences> overlay;
+    private final int size;
+
+    private ReferenceIndex(Map<File, PackageReferences> packages) {
+        this.packages = packages;
+        this.files = packages.keySet().toArray(new File[packages.size()]);
+
+        int names = 0;
+        int refs = 0;
+        for (PackageReferences references : packages.values()) {
+            names += references.targets.length;
+            refs += references.sources.length;
+        }
+
+        String[] all = new String[names];
+        int n = 0;
+        for (PackageReferences references : packages.values()) {
+            System.arraycopy(references.targets, 0, all, n, references.targets.length);
+            n += references.targets.length;
+        }
+        Arrays.sort(all);
+        int unique = 0;
+        for (int i = 0; i < all.length; i++)
+            if (unique == 0 || !all[i].equals(all[unique - 1]))
+                all[unique++] = all[i];
+        this.targets = Arrays.copyOf(all, unique);
+
+        int[][] globalIds = new int[files.length][];
+        int[] counts = new int[targets.length + 1];
+        this.fileRefs = new int[files.length];
+        for (int fileId = 0; fileId < files.length; fileId++) {
+            PackageReferences references = packages.get(files[fileId]);
+            int[] ids = new int[references.targets.length];
+            for (int i = 0; i < ids.length; i++)
+                ids[i] = Arrays.binarySearch(targets, references.targets[i]);
+            globalIds[fileId] = ids;
+            for (int target : references.refTargets)
+                counts[ids[target] + 1]++;
+            fileRefs[fileId] = references.sources.length;
+        }
+
+        this.offsets = new int[targets.length + 1];
+        for (int i = 0; i < targets.length; i++)
+            offsets[i + 1] = offsets[i] + counts[i + 1];
+
+        this.sourceFiles = new int[refs];
+        this.sourceExports = new int[refs];
+        int[] next = Arrays.copyOf(offsets, targets.length);
+        for (int fileId = 0; fileId < files.length; fileId++) {
+            PackageReferences references = packages.get(files[fileId]);
+            for (int i = 0; i < references.sources.length; i++) {
+                int pos = next[globalIds[fileId][references.refTargets[i]]]++;
+                sourceFiles[pos] = fileId;
+                sourceExports[pos] = references.sources[i];
+            }
+        }
+
+        this.masked = new boolean[files.length];
+        this.overlay = Collections.emptyMap();
+        this.size = refs;
+    }
+
+    private ReferenceIndex(ReferenceIndex base, Map<File, PackageReferences> packages, boolean[] masked, Map<File, PackageReferences> overlay) {
+        this.packages = packages;
+        this.files = base.files;
+        this.targets = base.targets;
+        this.offsets = base.offsets;
+        this.sourceFiles = base.sourceFiles;
+        this.sourceExports = base.sourceExports;
+        this.fileRefs = base.fileRefs;
+        this.masked = masked;
+        this.overlay = overlay;
+
+        int size = 0;
+        for (int fileId = 0; fileId < files.length; fileId++)
+            if (!masked[fileId])
+                size += fileRefs[fileId];
+        for (PackageReferences references : overlay.values())
+            size += references.sources.length;
+        this.size = size;
+    }
+
+    /**
+     * Objects are deserialized on a dedicated pool, {@code factories} should not be shared with the UI.
+     */
+    public static ReferenceIndex build(Collection<File> files, SerializerFactoryPool factories, File cacheDir) throws InterruptedException {
+        Map<File, PackageReferences> packages = new ConcurrentHashMap<>();
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            pool.submit(() -> files.parallelStream()
+                    .forEach(file -> packages.put(file, PackageReferences.get(file, factories, cacheDir))))
+                    .get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        return new ReferenceIndex(new HashMap<>(packages));
+    }
+
+    public ReferenceIndex withPackage(File file, SerializerFactoryPool factories, File cacheDir) {
+        Map<File, PackageReferences> packages = new HashMap<>(this.packages);
+        Map<File, PackageReferences> overlay = new LinkedHashMap<>(this.overlay);
+        if (file.exists()) {
+            PackageReferences references = PackageReferences.get(file, factories, cacheDir);
+            packages.put(file, references);
+            overlay.put(file, references);
+        } else {
+            packages.remove(file);
+            overlay.remove(file);
+        }
+        if (overlay.size() > MAX_OVERLAY)
+            return new ReferenceIndex(packages);
+
+        boolean[] masked = this.masked;
+        for (int fileId = 0; fileId < files.length; fileId++) {
+            if (files[fileId].equals(file) && !masked[fileId]) {
+                masked = Arrays.copyOf(masked, masked.length);
+                masked[fileId] = true;
+                break;
+            }
+        }
+        return new ReferenceIndex(this, packages, masked, overlay);
+    }
+
+    public Optional<File> findFile(String packageName) {
+        return packages.keySet()
+                .stream()
+                .filter(f -> Util.getPackageName(f).equalsIgnoreCase(packageName))
+                .findAny();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int count(String fullName) {
+        String name = fullName.toLowerCase();
+        int count = 0;
+        int i = Arrays.binarySearch(targets, name);
+        if (i >= 0)
+            for (int pos = offsets[i]; pos < offsets[i + 1]; pos++)
+                if (!masked[sourceFiles[pos]])
+                    count++;
+        for (PackageReferences references : overlay.values()) {
+            int id = references.indexOf(name);
+            if (id >= 0)
+                for (int refTarget : references.refTargets)
+                    if (refTarget == id)
+                        count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return referencing exports, import tables as {@link #IMPORT} export index with the package name
+     */
+    public List<ExportIndex.Hit> find(String fullName, MetadataCache metadataCache) {
+        String name = fullName.toLowerCase();
+        List<ExportIndex.Hit> hits = new ArrayList<>();
+        int i = Arrays.binarySearch(targets, name);
+        if (i >= 0)
+            for (int pos = offsets[i]; pos < offsets[i + 1]; pos++)
+                if (!masked[sourceFiles[pos]])
+                    hits.add(hit(files[sourceFiles[pos]], sourceExports[pos], metadataCache));
+        overlay.forEach((file, references) -> {
+            int id = references.indexOf(name);
+            if (id >= 0)
+                for (int k = 0; k < references.sources.length; k++)
+                    if (references.refTargets[k] == id)
+                        hits.add(hit(file, references.sources[k], metadataCache));
+        });
+        return hits;
+    }
+
+    private static ExportIndex.Hit hit(File file, int exportIndex, MetadataCache metadataCache) {
+        if (exportIndex == IMPORT)
+            return new ExportIndex.Hit(file, IMPORT, Util.getPackageName(file), "Import");
+        PackageMetadata.Export export = metadataCache.get(file).getExports()[exportIndex];
+        return new ExportIndex.Hit(file, exportIndex, export.getName(), export.getClassName());
+    }
+
+    /**
+     * Packages and exports whose references are unknown, any of them may reference the object.
+     */
+    public List<String> getFailures(MetadataCache metadataCache) {
+        List<String> failures = new ArrayList<>();
+        packages.entrySet()
+                .stream()
+                .filter(e -> e.getValue().isFailed())
+                .sorted(Comparator.comparing(e -> e.getKey().getPath()))
+                .forEach(e -> {
+                    File file = e.getKey();
+                    PackageReferences references = e.getValue();
+                    if (references.error != null) {
+                        failures.add(file + ": " + references.error);
+                        return;
+                    }
+                    PackageMetadata.Export[] exports = metadataCache.get(file).getExports();
+                    for (int exportIndex : references.failedExports)
+                        failures.add(exportIndex < exports.length ?
+                                file.getName() + "/" + exports[exportIndex].getName() :
+                                file.getName() + "/#" + exportIndex);
+                });
+        return failures;
+    }
+
+    static class PackageReferences {
+        final long size;
+        final long lastModified;
+        final String[] targets;
+        final int[] sources;
+        final int[] refTargets;
+        final int[] failedExports;
+        final String error;
+
+        private Map<String, Integer> ids;
+
+        PackageReferences(long size, long lastModified, String[] targets, int[] sources, int[] refTargets, int[] failedExports) {
+            this(size, lastModified, targets, sources, refTargets, failedExports, null);
+        }
+
+        private PackageReferences(long size, long lastModified, String[] targets, int[] sources, int[] refTargets, int[] failedExports, String error) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.targets = targets;
+            this.sources = sources;
+            this.refTargets = refTargets;
+            this.failedExports = failedExports;
+            this.error = error;
+        }
+
+        static PackageReferences failed(Exception e) {
+            return new PackageReferences(0, 0, new String[0], new int[0], new int[0], new int[0], e.toString());
+        }
+
+        boolean isFailed() {
+            return error != null || failedExports.length > 0;
+        }
+
+        /**
+         * Only packages in the overlay are looked up by name.
+         */
+        synchronized int indexOf(String target) {
+            if (ids == null) {
+                ids = new HashMap<>();
+                for (int i = 0; i < targets.length; i++)
+                    ids.put(targets[i], i);
+            }
+            return ids.getOrDefault(target, -1);
+        }
+
+        static PackageReferences get(File file, SerializerFactoryPool factories, File cacheDir) {
+            try {
+                PackageReferences references = load(file, cacheDir);
+                if (references == null || references.size != file.length() || references.lastModified != file.lastModified()) {
+                    try {
+                        references = read(file, factories.get());
+                    } finally {
+                        factories.release(file.length());
+                    }
+                    store(file, references, cacheDir);
+                }
+                return references;
+            } catch (Exception e) {
+                log.log(Level.WARNING, e, () -> "Couldn't index references of " + file);
+                return failed(e);
+            }
+        }
+
+        static PackageReferences read(File file, UnrealSerializerFactory factory) {
+            long size = file.length();
+            long lastModified = file.lastModified();
+
+            try (UnrealPackage up = Util.openPackage(file, true)) {
+                Collector collector = new Collector(up);
+
+                collector.setSource(IMPORT);
+                for (UnrealPackage.ImportEntry entry : up.getImportTable())
+                    collector.add(entry.getObjectFullName());
+
+                int[] failed = new int[up.getExportTable().size()];
+                int failedCount = 0;
+                for (UnrealPackage.ExportEntry entry : up.getExportTable()) {
+                    collector.setSource(entry.getIndex());
+                    try {
+                        collect(Util.loadObject(factory, entry).properties, collector);
+                    } catch (Exception e) {
+                        log.log(Level.FINE, e, () -> "Couldn't read " + entry.getObjectFullName());
+                        failed[failedCount++] = entry.getIndex();
+                    }
+                }
+                if (failedCount > 0) {
+                    int count = failedCount;
+                    log.warning(() -> String.format("%s: references of %d export(s) unknown", file, count));
+                }
+
+                return new PackageReferences(size, lastModified,
+                        collector.targets.toArray(new String[collector.targets.size()]),
+                        Arrays.copyOf(collector.sources, collector.count),
+                        Arrays.copyOf(collector.refTargets, collector.count),
+                        Arrays.copyOf(failed, failedCount));
+            }
+        }
+
+        private static void collect(List<L2Property> properties, IntConsumer refs) {
+            for (L2Property property : properties) {
+                Property template = property.getTemplate();
+                for (int i = 0; i < template.arrayDimension; i++)
+                    collect(template, property.getAt(i), refs);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private static void collect(Property template, java.lang.Object value, IntConsumer refs) {
+            if (value == null)
+                return;
+
+            if (template instanceof ObjectProperty) {
+                refs.accept((Integer) value);
+            } else if (template instanceof ArrayProperty) {
+                Property inner = ((ArrayProperty) template).inner;
+                for (java.lang.Object item : (List<java.lang.Object>) value)
+                    collect(inner, item, refs);
+            } else if (template instanceof StructProperty) {
+                collect((List<L2Property>) value, refs);
+            }
+        }
+
+        private static File cacheFile(File file, File cacheDir) {
+            return new File(cacheDir, Util.cacheFileName(file) + ".refs");
+        }
+
+        private static PackageReferences load(File file, File cacheDir) {
+            File cacheFile = cacheFile(file, cacheDir);
+            if (!cacheFile.isFile())
+                return null;
+
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+                if (input.readInt() != MAGIC || input.readInt() != VERSION)
+                    return null;
+                if (!input.readUTF().equals(file.getAbsolutePath()))
+                    return null;
+                long size = input.readLong();
+                long lastModified = input.readLong();
+                String[] targets = new String[input.readInt()];
+                for (int i = 0; i < targets.length; i++)
+                    targets[i] = input.readUTF();
+                int[] sources = new int[input.readInt()];
+                int[] refTargets = new int[sources.length];
+                for (int i = 0; i < sources.length; i++) {
+                    sources[i] = input.readInt();
+                    refTargets[i] = input.readInt();
+                }
+                int[] failedExports = new int[input.readInt()];
+                for (int i = 0; i < failedExports.length; i++)
+                    failedExports[i] = input.readInt();
+                return new PackageReferences(size, lastModified, targets, sources, refTargets, failedExports);
+            } catch (IOException e) {
+                log.log(Level.FINE, e, () -> "Couldn't read " + cacheFile);
+                return null;
+            }
+        }
+
+        private static void store(File file, PackageReferences references, File cacheDir) {
+            File cacheFile = cacheFile(file, cacheDir);
+            File tmp = new File(cacheFile.getPath() + ".tmp");
+            cacheDir.mkdirs();
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                output.writeUTF(file.getAbsolutePath());
+                output.writeLong(references.size);
+                output.writeLong(references.lastModified);
+                output.writeInt(references.targets.length);
+                for (String target : references.targets)
+                    output.writeUTF(target);
+                output.writeInt(references.sources.length);
+                for (int i = 0; i < references.sources.length; i++) {
+                    output.writeInt(references.sources[i]);
+                    output.writeInt(references.refTargets[i]);
+                }
+                output.writeInt(references.failedExports.length);
+                for (int exportIndex : references.failedExports)
+                    output.writeInt(exportIndex);
+            } catch (IOException e) {
+                log.log(Level.WARNING, e, () -> "Couldn't write " + cacheFile);
+                tmp.delete();
+                return;
+            }
+            if (!tmp.renameTo(cacheFile)) {
+                cacheFile.delete();
+                tmp.renameTo(cacheFile);
+            }
+        }
+    }
+
+    /**
+     * (source, target) pairs of one package, each pair once.
+     */
+    private static class Collector implements IntConsumer {
+        private final UnrealPackage up;
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final Set<Integer> seen = new HashSet<>();
+
+        final List<String> targets = new ArrayList<>();
+        int[] sources = new int[256];
+        int[] refTargets = new int[256];
+        int count;
+
+        private int source;
+
+        Collector(UnrealPackage up) {
+            this.up = up;
+        }
+
+        void setSource(int source) {
+            this.source = source;
+            seen.clear();
+        }
+
+        @Override
+        public void accept(int ref) {
+            UnrealPackage.Entry entry = up.objectReference(ref);
+            if (entry != null)
+                add(entry.getObjectFullName());
+        }
+
+        void add(String name) {
+            int id = ids.computeIfAbsent(name.toLowerCase(), key -> {
+                targets.add(key);
+                return targets.size() - 1;
+            });
+            if (!seen.add(id))
+                return;
+
+            if (count == sources.length) {
+                sources = Arrays.copyOf(sources, count * 2);
+                refTargets = Arrays.copyOf(refTargets, count * 2);
+            }
+            sources[count] = source;
+            refTargets[count] = id;
+            count++;
+        }
+    }
+}
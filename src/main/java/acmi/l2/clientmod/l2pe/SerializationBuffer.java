@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.l2pe;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Thread confined output buffer reused by object serialization.
+ * The array is presized from the expected raw data length; if the data fills it exactly
+ * it is handed over as is and the buffer starts a new array next time, otherwise it is copied once.
+ */
+class SerializationBuffer extends ByteArrayOutputStream {
+    private static final int INITIAL_SIZE = 256;
+    private static final int MAX_RETAINED = Integer.getInteger("L2pe.serializationBufferKB", 1024) << 10;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private static final ThreadLocal<SerializationBuffer> buffers = ThreadLocal.withInitial(SerializationBuffer::new);
+
+    private boolean inUse;
+
+    private SerializationBuffer() {
+        super(0);
+        buf = EMPTY;
+    }
+
+    /**
+     * @param sizeHint expected data length, 0 if unknown
+     */
+    static SerializationBuffer get(int sizeHint) {
+        SerializationBuffer buffer = buffers.get();
+        if (buffer.inUse)
+            buffer = new SerializationBuffer();
+        buffer.inUse = true;
+        buffer.count = 0;
+        if (buffer.buf.length < sizeHint || buffer.buf.length == 0)
+            buffer.buf = new byte[Math.max(sizeHint, INITIAL_SIZE)];
+        return buffer;
+    }
+
+    /**
+     * @return the written bytes, not shared with the buffer
+     */
+    byte[] toExactArray() {
+        if (count == buf.length) {
+            byte[] data = buf;
+            buf = EMPTY;
+            count = 0;
+            return data;
+        }
+        return Arrays.copyOf(buf, count);
+    }
+
+    @Override
+    public void close() {
+        inUse = false;
+        count = 0;
+        if (buf.length > MAX_RETAINED)
+            buf = EMPTY;
+    }
+}
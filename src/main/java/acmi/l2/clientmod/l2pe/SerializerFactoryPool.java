@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.l2pe;
+
+import acmi.l2.clientmod.unreal.Environment;
+import acmi.l2.clientmod.unreal.UnrealSerializerFactory;
+
+import java.io.File;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Neither Environment nor UnrealSerializerFactory are thread safe,
+ * so every worker thread gets its own pair built from the same L2.ini.
+ * <p>
+ * A factory keeps every object it loaded, so, as in {@link ObjectCache}, a thread's factory is replaced
+ * once the raw size its tasks {@link #release released} reaches {@code L2pe.factoryPoolMB}.
+ */
+public class SerializerFactoryPool {
+    private static final long DEFAULT_MAX_WEIGHT = Long.getLong("L2pe.factoryPoolMB", 64) << 20;
+
+    private final File ini;
+    private final long maxWeight;
+    private final ThreadLocal<Slot> slots = ThreadLocal.withInitial(Slot::new);
+    private final LongAdder resets = new LongAdder();
+
+    public SerializerFactoryPool(File ini) {
+        this(ini, DEFAULT_MAX_WEIGHT);
+    }
+
+    public SerializerFactoryPool(File ini, long maxWeight) {
+        this.ini = ini;
+        this.maxWeight = maxWeight;
+    }
+
+    public File getIni() {
+        return ini;
+    }
+
+    public UnrealSerializerFactory get() {
+        Slot slot = slots.get();
+        if (slot.factory == null)
+            slot.factory = new UnrealSerializerFactory(Environment.fromIni(ini));
+        return slot.factory;
+    }
+
+    /**
+     * Called by a task when it no longer needs the objects it loaded with {@link #get} on this thread.
+     *
+     * @param weight raw size of the loaded exports
+     */
+    public void release(long weight) {
+        Slot slot = slots.get();
+        slot.released += weight;
+        if (slot.released >= maxWeight)
+            reset();
+    }
+
+    /**
+     * Drops the factory of the current thread, the next {@link #get} builds a new one.
+     * Objects already loaded keep working with the old factory.
+     */
+    public void reset() {
+        Slot slot = slots.get();
+        if (slot.factory != null)
+            resets.increment();
+        slot.factory = null;
+        slot.released = 0;
+    }
+
+    public long getResetCount() {
+        return resets.sum();
+    }
+
+    private static class Slot {
+        UnrealSerializerFactory factory;
+        long released;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.l2pe;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Items sorted by a case-folded key, with a trigram index for substring queries.
+ * Keys are computed once. A query that extends the previous one only filters the previous result.
+ * <p>
+ * {@link #find} is not thread safe.
+ */
+public class SubstringIndex<T> {
+    private final T[] items;
+    private final String[] keys;
+    private final TrigramIndex trigrams;
+
+    private String lastQuery;
+    private int[] lastResult;
+
+    @SuppressWarnings("unchecked")
+    public SubstringIndex(Collection<? extends T> items, Function<? super T, String> key) {
+        int size = items.size();
+        java.lang.Object[] unsorted = items.toArray();
+        String[] unsortedKeys = new String[size];
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            unsortedKeys[i] = key.apply((T) unsorted[i]).toLowerCase();
+            order[i] = i;
+        }
+        Arrays.sort(order, (i1, i2) -> unsortedKeys[i1].compareTo(unsortedKeys[i2]));
+
+        this.items = (T[]) new java.lang.Object[size];
+        this.keys = new String[size];
+        for (int i = 0; i < size; i++) {
+            this.items[i] = (T) unsorted[order[i]];
+            this.keys[i] = unsortedKeys[order[i]];
+        }
+
+        this.trigrams = new TrigramIndex(keys);
+    }
+
+    public int size() {
+        return items.length;
+    }
+
+    public List<T> getItems() {
+        return Collections.unmodifiableList(Arrays.asList(items));
+    }
+
+    /**
+     * @return items whose key contains query (ignoring case), in key order
+     */
+    public List<T> find(String query) {
+        String q = query.toLowerCase();
+        int[] result;
+        if (q.isEmpty()) {
+            result = null;
+        } else if (lastQuery != null && lastResult != null && q.contains(lastQuery)) {
+            result = trigrams.filter(lastResult, lastResult.length, q, Integer.MAX_VALUE);
+        } else {
+            result = trigrams.find(q, Integer.MAX_VALUE);
+        }
+
+        lastQuery = q;
+        lastResult = result;
+        return result == null ? getItems() : view(result);
+    }
+
+    private List<T> view(int[] positions) {
+        return new AbstractList<T>() {
+            @Override
+            public T get(int index) {
+                return items[positions[index]];
+            }
+
+            @Override
+            public int size() {
+                return positions.length;
+            }
+        };
+    }
+}
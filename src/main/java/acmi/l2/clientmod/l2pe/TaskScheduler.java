@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.l2pe;
+
+import java.io.File;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Two lanes: {@link Access#SERIAL} and {@link Access#WRITE} tasks run one at a time (they share the serializer factory),
+ * {@link Access#READ} and {@link Access#CONCURRENT} tasks run on a worker pool.
+ * Reads and writes of the same file exclude each other.
+ * Within a lane {@link Priority#UI} tasks go first, a new task with the same key cancels the previous one.
+ */
+public class TaskScheduler {
+    private static final ThreadLocal<ScheduledTask> current = new ThreadLocal<>();
+
+    public enum Priority {
+        UI,
+        BACKGROUND
+    }
+
+    public enum Access {
+        SERIAL,
+        READ,
+        WRITE,
+        CONCURRENT
+    }
+
+    private final ThreadPoolExecutor serial;
+    private final ThreadPoolExecutor parallel;
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final ConcurrentMap<String, ScheduledTask> keyed = new ConcurrentHashMap<>();
+    private final ConcurrentMap<File, ReadWriteLock> fileLocks = new ConcurrentHashMap<>();
+
+    public TaskScheduler(int parallelism) {
+        serial = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(), threadFactory("L2pe Executor"));
+        parallel = new ThreadPoolExecutor(parallelism, parallelism, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(), threadFactory("L2pe Worker"));
+    }
+
+    private static ThreadFactory threadFactory(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> new Thread(r, count.getAndIncrement() == 0 ? name : name + " " + count.get()) {{
+            setDaemon(true);
+        }};
+    }
+
+    public ScheduledTask execute(String key, Priority priority, Access access, File file, Task task, Consumer<Exception> exceptionHandler) {
+        if ((access == Access.READ || access == Access.WRITE) && file == null)
+            throw new IllegalArgumentException(access + " requires a file");
+
+        ScheduledTask scheduledTask = new ScheduledTask(key, priority, access, file, task, exceptionHandler, sequence.incrementAndGet());
+        if (key != null) {
+            ScheduledTask previous = keyed.put(key, scheduledTask);
+            if (previous != null)
+                previous.cancel();
+        }
+
+        if (access == Access.SERIAL || access == Access.WRITE)
+            serial.execute(scheduledTask);
+        else
+            parallel.execute(scheduledTask);
+        return scheduledTask;
+    }
+
+    public void cancel(String key) {
+        ScheduledTask task = keyed.remove(key);
+        if (task != null)
+            task.cancel();
+    }
+
+    public static boolean isCancelled() {
+        ScheduledTask task = current.get();
+        return task != null && task.isCancelled();
+    }
+
+    public static void checkCancelled() {
+        if (isCancelled())
+            throw new CancellationException();
+    }
+
+    /**
+     * For tasks reading many files, {@link Access#READ} locks a single file for the whole task.
+     */
+    public Lock readLock(File file) {
+        return lock(Access.READ, file);
+    }
+
+    private Lock lock(Access access, File file) {
+        switch (access) {
+            case READ:
+                return fileLocks.computeIfAbsent(file.getAbsoluteFile(), f -> new ReentrantReadWriteLock()).readLock();
+            case WRITE:
+                return fileLocks.computeIfAbsent(file.getAbsoluteFile(), f -> new ReentrantReadWriteLock()).writeLock();
+            default:
+                return null;
+        }
+    }
+
+    public interface Task {
+        void run() throws Exception;
+    }
+
+    public class ScheduledTask implements Runnable, Comparable<ScheduledTask> {
+        private final String key;
+        private final Priority priority;
+        private final Access access;
+        private final File file;
+        private final Task task;
+        private final Consumer<Exception> exceptionHandler;
+        private final long sequence;
+
+        private volatile boolean cancelled;
+
+        ScheduledTask(String key, Priority priority, Access access, File file, Task task, Consumer<Exception> exceptionHandler, long sequence) {
+            this.key = key;
+            this.priority = priority;
+            this.access = access;
+            this.file = file;
+            this.task = task;
+            this.exceptionHandler = exceptionHandler;
+            this.sequence = sequence;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (cancelled)
+                    return;
+
+                current.set(this);
+                Lock lock = lock(access, file);
+                if (lock != null)
+                    lock.lock();
+                try {
+                    checkCancelled();
+                    task.run();
+                } finally {
+                    if (lock != null)
+                        lock.unlock();
+                }
+            } catch (CancellationException ignore) {
+            } catch (Exception e) {
+                exceptionHandler.accept(e);
+            } finally {
+                current.remove();
+                if (key != null)
+                    keyed.remove(key, this);
+            }
+        }
+
+        @Override
+        public int compareTo(ScheduledTask o) {
+            int c = priority.compareTo(o.priority);
+            return c != 0 ? c : Long.compare(sequence, o.sequence);
+        }
+    }
+}
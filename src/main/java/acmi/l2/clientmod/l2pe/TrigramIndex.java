@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.l2pe;
+
+import java.util.Arrays;
+
+/**
+ * Trigram postings over case-folded keys, answers substring queries with positions in key order.
+ * Immutable and thread safe.
+ */
+class TrigramIndex {
+    private static final int[] EMPTY = new int[0];
+
+    private final String[] keys;
+    private final long[] trigramKeys;
+    private final int[][] postings;
+
+    /**
+     * @param keys lower case keys, not copied
+     */
+    TrigramIndex(String[] keys) {
+        this.keys = keys;
+
+        //open addressing, 0 marks a free slot (a trigram of three \0 chars is not indexed)
+        int capacity = 1024;
+        long[] slots = new long[capacity];
+        IntList[] lists = new IntList[capacity];
+        int used = 0;
+        for (int i = 0; i < keys.length; i++) {
+            String k = keys[i];
+            for (int j = 0; j + 3 <= k.length(); j++) {
+                long trigram = trigram(k, j);
+                if (trigram == 0)
+                    continue;
+
+                int slot = slot(slots, trigram);
+                if (slots[slot] == 0) {
+                    if (++used * 2 > capacity) {
+                        capacity *= 2;
+                        long[] newSlots = new long[capacity];
+                        IntList[] newLists = new IntList[capacity];
+                        for (int s = 0; s < slots.length; s++) {
+                            if (slots[s] != 0) {
+                                int ns = slot(newSlots, slots[s]);
+                                newSlots[ns] = slots[s];
+                                newLists[ns] = lists[s];
+                            }
+                        }
+                        slots = newSlots;
+                        lists = newLists;
+                        slot = slot(slots, trigram);
+                    }
+                    slots[slot] = trigram;
+                    lists[slot] = new IntList();
+                }
+                lists[slot].addOnce(i);
+            }
+        }
+        this.trigramKeys = slots;
+        this.postings = new int[capacity][];
+        for (int s = 0; s < capacity; s++)
+            if (lists[s] != null)
+                postings[s] = lists[s].toArray();
+    }
+
+    private static int slot(long[] slots, long trigram) {
+        int mask = slots.length - 1;
+        int slot = (int) (trigram ^ (trigram >>> 29) ^ (trigram >>> 41)) * 0x9E3779B9 & mask;
+        while (slots[slot] != 0 && slots[slot] != trigram)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private int[] posting(long trigram) {
+        int slot = slot(trigramKeys, trigram);
+        return trigramKeys[slot] == 0 ? EMPTY : postings[slot];
+    }
+
+    private static long trigram(String s, int i) {
+        return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+    }
+
+    /**
+     * @param q     lower case, not empty
+     * @param limit maximum number of positions returned
+     * @return positions of keys containing q, ascending
+     */
+    int[] find(String q, int limit) {
+        if (q.length() < 3)
+            return scan(q, limit);
+
+        int[] smallest = null;
+        for (int j = 0; j + 3 <= q.length(); j++) {
+            int[] posting = posting(trigram(q, j));
+            if (smallest == null || posting.length < smallest.length)
+                smallest = posting;
+        }
+        return filter(smallest, smallest.length, q, limit);
+    }
+
+    /**
+     * @return candidates whose key contains q, in candidate order
+     */
+    int[] filter(int[] candidates, int length, String q, int limit) {
+        int[] result = new int[Math.min(length, limit)];
+        int n = 0;
+        for (int i = 0; i < length && n < result.length; i++)
+            if (keys[candidates[i]].contains(q))
+                result[n++] = candidates[i];
+        return n == result.length ? result : Arrays.copyOf(result, n);
+    }
+
+    private int[] scan(String q, int limit) {
+        int[] result = new int[Math.min(keys.length, limit)];
+        int n = 0;
+        for (int i = 0; i < keys.length && n < result.length; i++)
+            if (keys[i].contains(q))
+                result[n++] = i;
+        return n == result.length ? result : Arrays.copyOf(result, n);
+    }
+
+    private static class IntList {
+        int[] values = new int[4];
+        int size;
+
+        void addOnce(int value) {
+            if (size > 0 && values[size - 1] == value)
+                return;
+            if (size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
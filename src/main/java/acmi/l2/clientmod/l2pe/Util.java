@@ -3,10 +3,14 @@ package acmi.l2.clientmod.l2pe;
 import acmi.l2.clientmod.io.*;
 import acmi.l2.clientmod.unreal.UnrealRuntimeContext;
 import acmi.l2.clientmod.unreal.UnrealSerializerFactory;
+import acmi.l2.clientmod.unreal.core.Class;
+import acmi.l2.clientmod.unreal.core.Object;
+import acmi.l2.clientmod.unreal.engine.Texture;
 import acmi.l2.clientmod.unreal.properties.L2Property;
 import acmi.l2.clientmod.unreal.properties.PropertiesUtil;
 
-import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.Charset;
 import java.util.*;
 import java.util.stream.Stream;
 
@@ -15,7 +19,53 @@ import static acmi.l2.clientmod.io.UnrealPackage.ObjectFlag.Standalone;
 import static acmi.l2.clientmod.unreal.UnrealSerializerFactory.IS_STRUCT;
 
 public class Util {
+    public static String getPackageName(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? name : name.substring(0, dot);
+    }
+
+    /**
+     * Name for per-package cache files: file name and a 64 bit FNV-1a hash of the absolute path.
+     */
+    static String cacheFileName(File file) {
+        String path = file.getAbsolutePath();
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < path.length(); i++) {
+            hash ^= path.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return file.getName() + "-" + Long.toHexString(hash);
+    }
+
+    public static UnrealPackage openPackage(File file, boolean readOnly) {
+        java.lang.Object event = Events.packageOpen();
+        long start = System.nanoTime();
+        UnrealPackage up = new UnrealPackage(file, readOnly);
+        long size = file.length();
+        Metrics.OPEN.record(start, size);
+        Events.packageOpened(event, up, file, readOnly, size);
+        return up;
+    }
+
+    public static Object loadObject(UnrealSerializerFactory serializer, UnrealPackage.ExportEntry entry) {
+        java.lang.Object event = Events.objectLoad();
+        long start = System.nanoTime();
+        Object object = serializer.getOrCreateObject(entry);
+        Metrics.DESERIALIZE.record(start, entry.getSize());
+        Events.objectLoaded(event, entry);
+        return object;
+    }
+
+    static void setObjectRawData(UnrealPackage.ExportEntry entry, byte[] data) {
+        java.lang.Object event = Events.rawDataWrite();
+        int oldSize = entry.getSize();
+        entry.setObjectRawData(data);
+        Events.rawDataWritten(event, entry, oldSize, data.length);
+    }
+
     public static void createClass(UnrealSerializerFactory serializer, UnrealPackage up, String objName, String objSuperClass, int flags, List<L2Property> properties) {
+        java.lang.Object event = Events.objectCreate();
         flags |= Standalone.getMask();
 
         Stream.of(up.getPackageName(), "System")
@@ -31,43 +81,48 @@ public class Util {
                 flags);
         UnrealPackage.ExportEntry entry = up.getExportTable().get(up.getExportTable().size() - 1);
 
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ObjectOutput<UnrealRuntimeContext> dataOutput = new ObjectOutputStream<>(baos, up.getFile().getCharset(), serializer, new UnrealRuntimeContext(entry, serializer));
-        dataOutput.writeCompactInt(up.objectReferenceByName(objSuperClass, IS_STRUCT));
-        dataOutput.writeCompactInt(0);
-        dataOutput.writeCompactInt(0);
-        dataOutput.writeCompactInt(0);
-        dataOutput.writeCompactInt(up.nameReference(entry.getObjectName().getName()));
-        dataOutput.writeCompactInt(0);
-        dataOutput.writeInt(-1);
-        dataOutput.writeInt(-1);
-        dataOutput.writeInt(0);
-        dataOutput.writeLong(0x0080000000000040L);
-        dataOutput.writeLong(-1L);
-        dataOutput.writeShort(-1);
-        dataOutput.writeInt(0);
-        dataOutput.writeInt(0x00000212);
-        dataOutput.writeBytes(new byte[16]);
-        dataOutput.writeCompactInt(2);
-        dataOutput.writeCompactInt(entry.getObjectReference());
-        dataOutput.writeInt(1);
-        dataOutput.writeInt(0);
-        dataOutput.writeCompactInt(entry.getObjectSuperClass().getObjectReference());
-        dataOutput.writeInt(1);
-        dataOutput.writeInt(0);
-        Set<String> packages = new HashSet<>(Arrays.asList("Core", "Engine", up.getPackageName()));
-        dataOutput.writeCompactInt(packages.size());
-        for (String packageName : packages)
-            dataOutput.writeCompactInt(up.nameReference(packageName));
-        dataOutput.writeCompactInt(up.objectReferenceByName("Core.Object", IS_STRUCT));
-        dataOutput.writeCompactInt(up.nameReference("System"));
-        dataOutput.writeCompactInt(0);
-        PropertiesUtil.writeProperties(dataOutput, properties);
-
-        entry.setObjectRawData(baos.toByteArray());
+        byte[] data;
+        try (SerializationBuffer buffer = SerializationBuffer.get(0)) {
+            ObjectOutput<UnrealRuntimeContext> dataOutput = new ObjectOutputStream<>(buffer, up.getFile().getCharset(), serializer, new UnrealRuntimeContext(entry, serializer));
+            dataOutput.writeCompactInt(up.objectReferenceByName(objSuperClass, IS_STRUCT));
+            dataOutput.writeCompactInt(0);
+            dataOutput.writeCompactInt(0);
+            dataOutput.writeCompactInt(0);
+            dataOutput.writeCompactInt(up.nameReference(entry.getObjectName().getName()));
+            dataOutput.writeCompactInt(0);
+            dataOutput.writeInt(-1);
+            dataOutput.writeInt(-1);
+            dataOutput.writeInt(0);
+            dataOutput.writeLong(0x0080000000000040L);
+            dataOutput.writeLong(-1L);
+            dataOutput.writeShort(-1);
+            dataOutput.writeInt(0);
+            dataOutput.writeInt(0x00000212);
+            dataOutput.writeBytes(new byte[16]);
+            dataOutput.writeCompactInt(2);
+            dataOutput.writeCompactInt(entry.getObjectReference());
+            dataOutput.writeInt(1);
+            dataOutput.writeInt(0);
+            dataOutput.writeCompactInt(entry.getObjectSuperClass().getObjectReference());
+            dataOutput.writeInt(1);
+            dataOutput.writeInt(0);
+            Set<String> packages = new HashSet<>(Arrays.asList("Core", "Engine", up.getPackageName()));
+            dataOutput.writeCompactInt(packages.size());
+            for (String packageName : packages)
+                dataOutput.writeCompactInt(up.nameReference(packageName));
+            dataOutput.writeCompactInt(up.objectReferenceByName("Core.Object", IS_STRUCT));
+            dataOutput.writeCompactInt(up.nameReference("System"));
+            dataOutput.writeCompactInt(0);
+            PropertiesUtil.writeProperties(dataOutput, properties);
+
+            data = buffer.toExactArray();
+        }
+        setObjectRawData(entry, data);
+        Events.objectCreated(event, entry, true);
     }
 
     public static void createObject(UnrealSerializerFactory serializer, UnrealPackage up, String objName, String objClass, int flags, boolean hasStack, List<L2Property> properties) {
+        java.lang.Object event = Events.objectCreate();
         if (hasStack)
             flags |= HasStack.getMask();
 
@@ -79,22 +134,67 @@ public class Util {
                 flags);
         UnrealPackage.ExportEntry entry = up.getExportTable().get(up.getExportTable().size() - 1);
 
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ObjectOutput<UnrealRuntimeContext> dataOutput = new ObjectOutputStream<>(baos, up.getFile().getCharset(), serializer, new UnrealRuntimeContext(entry, serializer));
-        if (hasStack) {
-            int classRef = up.objectReferenceByName(objClass, IS_STRUCT);
-            if (classRef == 0) {
-                up.addImportEntries(Collections.singletonMap(objClass, "Core.Class"));
-                classRef = up.objectReferenceByName(objClass, IS_STRUCT);
+        byte[] data;
+        try (SerializationBuffer buffer = SerializationBuffer.get(0)) {
+            ObjectOutput<UnrealRuntimeContext> dataOutput = new ObjectOutputStream<>(buffer, up.getFile().getCharset(), serializer, new UnrealRuntimeContext(entry, serializer));
+            if (hasStack) {
+                int classRef = up.objectReferenceByName(objClass, IS_STRUCT);
+                if (classRef == 0) {
+                    up.addImportEntries(Collections.singletonMap(objClass, "Core.Class"));
+                    classRef = up.objectReferenceByName(objClass, IS_STRUCT);
+                }
+                dataOutput.writeCompactInt(classRef);
+                dataOutput.writeCompactInt(classRef);
+                dataOutput.writeLong(-1);
+                dataOutput.writeInt(0);
+                dataOutput.writeCompactInt(-1);
             }
-            dataOutput.writeCompactInt(classRef);
-            dataOutput.writeCompactInt(classRef);
-            dataOutput.writeLong(-1);
-            dataOutput.writeInt(0);
-            dataOutput.writeCompactInt(-1);
+            PropertiesUtil.writeProperties(dataOutput, properties);
+
+            data = buffer.toExactArray();
         }
-        PropertiesUtil.writeProperties(dataOutput, properties);
+        setObjectRawData(entry, data);
+        Events.objectCreated(event, entry, false);
+    }
+
+    /**
+     * Texture data holds absolute file positions, it is serialized for the current offset
+     * and only serialized again if writing it moved the export. Size doesn't depend on the offset,
+     * a second serialization of a different size fails instead of being written.
+     */
+    public static void saveObject(UnrealSerializerFactory serializer, UnrealPackage.ExportEntry entry, Object object) {
+        long start = System.nanoTime();
+        UnrealRuntimeContext context = new UnrealRuntimeContext(entry, serializer);
+        boolean texture = object instanceof Texture;
+
+        int offset = entry.getOffset();
+        byte[] data = serialize(serializer, entry, context, object, texture ? offset : -1, entry.getSize());
+        setObjectRawData(entry, data);
+        if (texture && entry.getOffset() != offset) {
+            byte[] moved = serialize(serializer, entry, context, object, entry.getOffset(), data.length);
+            if (moved.length != data.length)
+                throw new IllegalStateException(String.format("%s: size changed from %d to %d after moving to offset %d",
+                        entry.getObjectFullName(), data.length, moved.length, entry.getOffset()));
+            setObjectRawData(entry, moved);
+        }
+        Metrics.SAVE.record(start, entry.getSize());
+    }
 
-        entry.setObjectRawData(baos.toByteArray());
+    /**
+     * @param offset file position of the data, -1 if the layout doesn't depend on it
+     */
+    private static byte[] serialize(UnrealSerializerFactory serializer, UnrealPackage.ExportEntry entry, UnrealRuntimeContext context, Object object, int offset, int sizeHint) {
+        Charset charset = entry.getUnrealPackage().getFile().getCharset();
+        try (SerializationBuffer buffer = SerializationBuffer.get(sizeHint)) {
+            ObjectOutput<UnrealRuntimeContext> objectOutput = offset < 0 ?
+                    new ObjectOutputStream<>(buffer, charset, serializer, context) :
+                    new ObjectOutputStream<>(buffer, charset, offset, serializer, context);
+            objectOutput.write(object);
+            if (object instanceof Class)
+                PropertiesUtil.writeProperties(objectOutput, object.properties);
+            if (object.unreadBytes != null && object.unreadBytes.length > 0)
+                objectOutput.writeBytes(object.unreadBytes);
+            return buffer.toExactArray();
+        }
     }
 }